@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.example"
@@ -16,4 +17,12 @@ dependencies {
 
 tasks.test {
     useJUnitPlatform()
+}
+
+// Benchmarks are in src/jmh, with the scripts they run under src/jmh/resources/fixtures. Run them
+// with ./gradlew jmh, or only some with e.g. ./gradlew jmh -Pjmh.includes=FrontEndBenchmark.
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    (findProperty("jmh.includes") as String?)?.let { includes.set(listOf(it)) }
 }
\ No newline at end of file
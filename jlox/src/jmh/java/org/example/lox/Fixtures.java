@@ -0,0 +1,27 @@
+package org.example.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+// The Lox programs the benchmarks run, checked in under src/jmh/resources/fixtures.
+final class Fixtures {
+    private Fixtures() {
+    }
+
+    static String read(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".lox")) {
+            if (in == null) { throw new IllegalArgumentException("There is no fixture '" + name + "'."); }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Where print goes, so writing to the terminal isn't part of what is measured.
+    static OutputBuffer discard() {
+        return new OutputBuffer(Writer.nullWriter());
+    }
+}
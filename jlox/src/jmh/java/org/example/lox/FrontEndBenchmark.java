@@ -0,0 +1,59 @@
+package org.example.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Scanning, parsing and resolving a fixture, each on the output of the phase before it made once in
+// setup. Resolving only writes slots and cells into the tree, so the same statements can be resolved
+// again on every call.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({"program", "fib", "loops", "strings", "closures", "classes"})
+    public String fixture;
+
+    private String source;
+    private Interpreter interpreter;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() {
+        source = Fixtures.read(fixture);
+        interpreter = new Interpreter(Fixtures.discard());
+        tokens = new Scanner(source, interpreter.strings).scanTokens();
+        statements = new Optimizer(interpreter.strings).optimize(new Parser(tokens).parse());
+        if (Lox.hadError) { throw new IllegalStateException("Fixture '" + fixture + "' has errors."); }
+    }
+
+    @Benchmark
+    public Object scan() {
+        return new Scanner(source, interpreter.strings).scanTokens();
+    }
+
+    @Benchmark
+    public Object parse() {
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public Object resolve() {
+        new Resolver(interpreter).resolve(statements);
+        return statements;
+    }
+}
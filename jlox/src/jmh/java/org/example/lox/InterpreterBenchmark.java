@@ -0,0 +1,59 @@
+package org.example.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Running a fixture. run repeats one compiled script on one interpreter, so after the first
+// iterations its hot functions and loops are in the closure tier; compileAndRun starts over with a
+// fresh interpreter every time, the way a script run from the command line does.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"fib", "loops", "strings", "closures", "classes"})
+    public String fixture;
+
+    private String source;
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() {
+        source = Fixtures.read(fixture);
+        interpreter = new Interpreter(Fixtures.discard());
+        statements = compile(interpreter);
+    }
+
+    private List<Stmt> compile(Interpreter interpreter) {
+        List<Stmt> statements = Lox.compile(source, interpreter, new Optimizer(interpreter.strings));
+        if (statements == null) { throw new IllegalStateException("Fixture '" + fixture + "' has errors."); }
+        return statements;
+    }
+
+    @Benchmark
+    public Object run() {
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    @Benchmark
+    public Object compileAndRun() {
+        Interpreter fresh = new Interpreter(Fixtures.discard());
+        fresh.interpret(compile(fresh));
+        return fresh;
+    }
+}
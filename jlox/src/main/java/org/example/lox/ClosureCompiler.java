@@ -0,0 +1,600 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+// Second tier for hot functions. The body is turned into a tree of Java lambdas once, deciding up
+// front everything the tree-walker re-checks on every visit: which operator, where a variable
+// lives, whether a block needs an Environment. The lambdas are handed the interpreter they run in,
+// so one compiled body serves every Interpreter.fork, and nodes that aren't worth specialising are
+// simply handed back to the tree-walker.
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Code>, Stmt.Visitor<ClosureCompiler.Action> {
+    interface Code {
+        Object run(Interpreter interpreter, Object[] frame);
+    }
+
+    // Returns null to carry on with the next statement, or what the function returns. Unwinding
+    // through these return values is far cheaper than throwing Return as the tree-walker does.
+    interface Action {
+        Object run(Interpreter interpreter, Object[] frame);
+    }
+
+    private static final Object NIL = new Object();
+
+    private interface Store {
+        void set(Interpreter interpreter, Object[] frame, Object value);
+    }
+
+    Action compile(Stmt.Function function) {
+        return sequence(function.body);
+    }
+
+    // For a loop taken over in the middle of running, see Interpreter.loop.
+    Action compileLoop(Stmt loop) {
+        return compile(loop);
+    }
+
+    static Object returned(Object result) {
+        return result == NIL ? null : result;
+    }
+
+    private Action compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Code compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Action sequence(List<Stmt> statements) {
+        Action[] actions = new Action[statements.size()];
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = compile(statements.get(i));
+        }
+        if (actions.length == 1) { return actions[0]; }
+        return (interpreter, frame) -> {
+            for (Action action: actions) {
+                Object result = action.run(interpreter, frame);
+                if (result != null) { return result; }
+            }
+            return null;
+        };
+    }
+
+    private Code[] compileAll(List<Expr> exprs) {
+        Code[] codes = new Code[exprs.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = compile(exprs.get(i));
+        }
+        return codes;
+    }
+
+    private static List<Object> evaluateAll(Interpreter interpreter, Code[] codes, Object[] frame) {
+        List<Object> values = new ArrayList<>(codes.length);
+        for (Code code: codes) {
+            values.add(code.run(interpreter, frame));
+        }
+        return values;
+    }
+
+    private Store store(int slot, int depth, GlobalCell cell, Token name) {
+        if (slot >= 0) {
+            return (interpreter, frame, value) -> frame[slot] = value;
+        } else if (depth >= 0) {
+            return (interpreter, frame, value) -> interpreter.assign(-1, depth, null, name, value);
+        }
+        return (interpreter, frame, value) -> interpreter.assign(-1, -1, cell, name, value);
+    }
+
+    @Override
+    public Code visitAssignExpr(Expr.Assign expr) {
+        Code value = compile(expr.value);
+        if (expr.slot >= 0) {
+            int slot = expr.slot;
+            return (interpreter, frame) -> frame[slot] = value.run(interpreter, frame);
+        }
+
+        Store store = store(expr.slot, expr.depth, expr.cell, expr.name);
+        return (interpreter, frame) -> {
+            Object result = value.run(interpreter, frame);
+            store.set(interpreter, frame, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Code visitBinaryExpr(Expr.Binary expr) {
+        Code left = compile(expr.left);
+        Code right = compile(expr.right);
+        Token operator = expr.operator;
+
+        if (expr.operands == LoxType.NUMBER) {
+            switch (operator.type) {
+                case TokenType.MINUS: return (interpreter, frame) -> (double)left.run(interpreter, frame) - (double)right.run(interpreter, frame);
+                case TokenType.STAR: return (interpreter, frame) -> (double)left.run(interpreter, frame) * (double)right.run(interpreter, frame);
+                case TokenType.SLASH: return (interpreter, frame) -> (double)left.run(interpreter, frame) / (double)right.run(interpreter, frame);
+                case TokenType.PLUS: return (interpreter, frame) -> (double)left.run(interpreter, frame) + (double)right.run(interpreter, frame);
+                case TokenType.GREATER: return (interpreter, frame) -> (double)left.run(interpreter, frame) > (double)right.run(interpreter, frame);
+                case TokenType.GREATER_EQUAL: return (interpreter, frame) -> (double)left.run(interpreter, frame) >= (double)right.run(interpreter, frame);
+                case TokenType.LESS: return (interpreter, frame) -> (double)left.run(interpreter, frame) < (double)right.run(interpreter, frame);
+                case TokenType.LESS_EQUAL: return (interpreter, frame) -> (double)left.run(interpreter, frame) <= (double)right.run(interpreter, frame);
+                case TokenType.BANG_EQUAL:
+                    return (interpreter, frame) -> Double.compare((double)left.run(interpreter, frame), (double)right.run(interpreter, frame)) != 0;
+                case TokenType.EQUAL_EQUAL:
+                    return (interpreter, frame) -> Double.compare((double)left.run(interpreter, frame), (double)right.run(interpreter, frame)) == 0;
+            }
+        } else if (expr.operands == LoxType.STRING) {
+            return (interpreter, frame) -> interpreter.strings.dynamic(
+                    Rope.concat((CharSequence)left.run(interpreter, frame), (CharSequence)right.run(interpreter, frame)));
+        }
+
+        switch (operator.type) {
+            case TokenType.MINUS:
+                return (interpreter, frame) -> {
+                    Object a = left.run(interpreter, frame), b = right.run(interpreter, frame);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a - (double)b;
+                };
+            case TokenType.STAR:
+                return (interpreter, frame) -> {
+                    Object a = left.run(interpreter, frame), b = right.run(interpreter, frame);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a * (double)b;
+                };
+            case TokenType.SLASH:
+                return (interpreter, frame) -> {
+                    Object a = left.run(interpreter, frame), b = right.run(interpreter, frame);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a / (double)b;
+                };
+            case TokenType.PLUS:
+                return (interpreter, frame) -> {
+                    Object a = left.run(interpreter, frame), b = right.run(interpreter, frame);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double)a + (double)b;
+                    } else if (Rope.isString(a) && Rope.isString(b)) {
+                        return interpreter.strings.dynamic(Rope.concat((CharSequence)a, (CharSequence)b));
+                    }
+                    return null;
+                };
+            case TokenType.GREATER:
+                return (interpreter, frame) -> {
+                    Object a = left.run(interpreter, frame), b = right.run(interpreter, frame);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a > (double)b;
+                };
+            case TokenType.GREATER_EQUAL:
+                return (interpreter, frame) -> {
+                    Object a = left.run(interpreter, frame), b = right.run(interpreter, frame);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a >= (double)b;
+                };
+            case TokenType.LESS:
+                return (interpreter, frame) -> {
+                    Object a = left.run(interpreter, frame), b = right.run(interpreter, frame);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a < (double)b;
+                };
+            case TokenType.LESS_EQUAL:
+                return (interpreter, frame) -> {
+                    Object a = left.run(interpreter, frame), b = right.run(interpreter, frame);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a <= (double)b;
+                };
+            case TokenType.BANG_EQUAL:
+                return (interpreter, frame) -> !Interpreter.isEqual(left.run(interpreter, frame), right.run(interpreter, frame));
+            case TokenType.EQUAL_EQUAL:
+                return (interpreter, frame) -> Interpreter.isEqual(left.run(interpreter, frame), right.run(interpreter, frame));
+        }
+        return (interpreter, frame) -> {
+            left.run(interpreter, frame);
+            right.run(interpreter, frame);
+            return null;
+        };
+    }
+
+    @Override
+    public Code visitCallExpr(Expr.Call expr) {
+        Code[] arguments = compileAll(expr.arguments);
+        Token paren = expr.paren;
+        if (expr.callee instanceof Expr.Get) { return property(expr, arguments); }
+        Code callee = compile(expr.callee);
+        if (expr.intrinsic != null) { return intrinsic(expr.intrinsic, callee, arguments, paren); }
+        return (interpreter, frame) -> {
+            Object function = callee.run(interpreter, frame);
+            return interpreter.invoke(paren, function, evaluateAll(interpreter, arguments, frame));
+        };
+    }
+
+    // A call of a property: a Java method goes through the call's site, anything else is invoked.
+    private Code property(Expr.Call expr, Code[] arguments) {
+        Expr.Get get = (Expr.Get) expr.callee;
+        Code object = compile(get.object);
+        Token paren = expr.paren;
+        return (interpreter, frame) -> {
+            Object receiver = object.run(interpreter, frame);
+            if (!(receiver instanceof LoxInstance) && interpreter.interop.isJava(receiver)) {
+                Object[] values = new Object[arguments.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = arguments[i].run(interpreter, frame);
+                }
+                return interpreter.javaCall(expr, receiver, values);
+            }
+            Object function = interpreter.property(get, receiver);
+            return interpreter.invoke(paren, function, evaluateAll(interpreter, arguments, frame));
+        };
+    }
+
+    // Guarded on the global still holding the native, as in Interpreter.intrinsic. Math functions
+    // are applied to the unboxed argument directly.
+    private Code intrinsic(NativeFunction function, Code callee, Code[] arguments, Token paren) {
+        Code direct;
+        if (function instanceof NativeFunction.Math1) {
+            DoubleUnaryOperator operator = ((NativeFunction.Math1) function).operator;
+            Code a = arguments[0];
+            direct = (interpreter, frame) -> {
+                Object x = a.run(interpreter, frame);
+                return x instanceof Double ? operator.applyAsDouble((double)x) : function.call1(interpreter, x);
+            };
+        } else if (function instanceof NativeFunction.Math2) {
+            DoubleBinaryOperator operator = ((NativeFunction.Math2) function).operator;
+            Code a = arguments[0], b = arguments[1];
+            direct = (interpreter, frame) -> {
+                Object x = a.run(interpreter, frame), y = b.run(interpreter, frame);
+                if (x instanceof Double && y instanceof Double) {
+                    return operator.applyAsDouble((double)x, (double)y);
+                }
+                return function.call2(interpreter, x, y);
+            };
+        } else {
+            switch (arguments.length) {
+                case 0: direct = (interpreter, frame) -> function.call0(interpreter); break;
+                case 1: direct = (interpreter, frame) -> function.call1(interpreter, arguments[0].run(interpreter, frame)); break;
+                case 2: direct = (interpreter, frame) -> function.call2(interpreter, arguments[0].run(interpreter, frame), arguments[1].run(interpreter, frame)); break;
+                default:
+                    direct = (interpreter, frame) -> function.call3(interpreter, arguments[0].run(interpreter, frame), arguments[1].run(interpreter, frame),
+                            arguments[2].run(interpreter, frame));
+            }
+        }
+
+        return (interpreter, frame) -> {
+            Object target = callee.run(interpreter, frame);
+            if (target != function) {
+                return interpreter.invoke(paren, target, evaluateAll(interpreter, arguments, frame));
+            }
+            try {
+                return direct.run(interpreter, frame);
+            } catch (NativeError error) {
+                throw new RuntimeError(paren, error.getMessage());
+            }
+        };
+    }
+
+    @Override
+    public Code visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Code visitGetExpr(Expr.Get expr) {
+        Code object = compile(expr.object);
+        return (interpreter, frame) -> interpreter.property(expr, object.run(interpreter, frame));
+    }
+
+    @Override
+    public Code visitInlineExpr(Expr.Inline expr) {
+        Code callee = compile(expr.call.callee);
+        Code body = compile(expr.body);
+        Code[] arguments = compileAll(expr.call.arguments);
+        Stmt.Function inlined = expr.function;
+        Token paren = expr.call.paren;
+        int[] slots = expr.bound ? expr.paramSlots : new int[0];
+        return (interpreter, frame) -> {
+            Object function = callee.run(interpreter, frame);
+            if (function instanceof LoxFunction && ((LoxFunction) function).declaration == inlined) {
+                for (int i = 0; i < slots.length; i++) {
+                    frame[slots[i]] = arguments[i].run(interpreter, frame);
+                }
+                return body.run(interpreter, frame);
+            }
+            return interpreter.invoke(paren, function, evaluateAll(interpreter, arguments, frame));
+        };
+    }
+
+    @Override
+    public Code visitProbeExpr(Expr.Probe expr) {
+        Code expression = compile(expr.expression);
+        Hotspots.Node node = expr.node;
+        return (interpreter, frame) -> {
+            long enclosing = interpreter.probed;
+            interpreter.probed = 0;
+            long start = System.nanoTime();
+            try {
+                return expression.run(interpreter, frame);
+            } finally {
+                node.exit(interpreter, enclosing, start);
+            }
+        };
+    }
+
+    @Override
+    public Code visitInvariantExpr(Expr.Invariant expr) {
+        Code expression = compile(expr.expression);
+        int slot = expr.slot;
+        return (interpreter, frame) -> {
+            Object[] invariants = interpreter.invariants;
+            Object value = invariants[slot];
+            if (value == Interpreter.UNCACHED) {
+                value = expression.run(interpreter, frame);
+                invariants[slot] = value;
+            }
+            return value;
+        };
+    }
+
+    @Override
+    public Code visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return (interpreter, frame) -> value;
+    }
+
+    @Override
+    public Code visitLogicalExpr(Expr.Logical expr) {
+        Code left = compile(expr.left);
+        Code right = compile(expr.right);
+        if (expr.operator.type == TokenType.OR) {
+            return (interpreter, frame) -> {
+                Object value = left.run(interpreter, frame);
+                return Interpreter.isTruthy(value) ? value : right.run(interpreter, frame);
+            };
+        }
+        return (interpreter, frame) -> {
+            Object value = left.run(interpreter, frame);
+            return Interpreter.isTruthy(value) ? right.run(interpreter, frame) : value;
+        };
+    }
+
+    @Override
+    public Code visitSetExpr(Expr.Set expr) {
+        return (interpreter, frame) -> interpreter.evaluate(expr);
+    }
+
+    @Override
+    public Code visitUnaryExpr(Expr.Unary expr) {
+        Code right = compile(expr.right);
+        Token operator = expr.operator;
+        switch (operator.type) {
+            case TokenType.MINUS:
+                return (interpreter, frame) -> {
+                    Object value = right.run(interpreter, frame);
+                    Interpreter.checkNumberOperand(operator, value);
+                    return -(double)value;
+                };
+            case TokenType.BANG:
+                return (interpreter, frame) -> !Interpreter.isTruthy(right.run(interpreter, frame));
+        }
+        return (interpreter, frame) -> {
+            right.run(interpreter, frame);
+            return null;
+        };
+    }
+
+    @Override
+    public Code visitVariableExpr(Expr.Variable expr) {
+        if (expr.slot >= 0) {
+            int slot = expr.slot;
+            return (interpreter, frame) -> frame[slot];
+        } else if (expr.depth >= 0) {
+            int depth = expr.depth;
+            String name = expr.name.lexeme;
+            return (interpreter, frame) -> interpreter.environment.getAt(depth, name);
+        }
+
+        GlobalCell cell = expr.cell;
+        Token name = expr.name;
+        return (interpreter, frame) -> {
+            Object value = cell.get();
+            if (value == GlobalCell.UNDEFINED) { throw Interpreter.undefined(name); }
+            return value;
+        };
+    }
+
+    @Override
+    public Action visitBlockStmt(Stmt.Block stmt) {
+        Action body = sequence(stmt.statements);
+        if (!stmt.captures) { return body; }
+        return (interpreter, frame) -> scoped(interpreter, body, frame);
+    }
+
+    private static Object scoped(Interpreter interpreter, Action body, Object[] frame) {
+        Environment previous = interpreter.environment;
+        try {
+            interpreter.environment = new Environment(previous, interpreter);
+            return body.run(interpreter, frame);
+        } finally {
+            interpreter.environment = previous;
+        }
+    }
+
+    @Override
+    public Action visitClassStmt(Stmt.Class stmt) {
+        return (interpreter, frame) -> {
+            interpreter.execute(stmt);
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitExpressionStmt(Stmt.Expression stmt) {
+        Code expression = compile(stmt.expression);
+        return (interpreter, frame) -> {
+            expression.run(interpreter, frame);
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitIfStmt(Stmt.If stmt) {
+        Code condition = compile(stmt.condition);
+        Action thenBranch = compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            return (interpreter, frame) -> Interpreter.isTruthy(condition.run(interpreter, frame)) ? thenBranch.run(interpreter, frame) : null;
+        }
+        Action elseBranch = compile(stmt.elseBranch);
+        return (interpreter, frame) -> Interpreter.isTruthy(condition.run(interpreter, frame)) ? thenBranch.run(interpreter, frame) : elseBranch.run(interpreter, frame);
+    }
+
+    @Override
+    public Action visitPrintStmt(Stmt.Print stmt) {
+        Code expression = compile(stmt.expression);
+        return (interpreter, frame) -> {
+            interpreter.out.println(Interpreter.stringify(expression.run(interpreter, frame)));
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) { return (interpreter, frame) -> NIL; }
+        Code value = compile(stmt.value);
+        return (interpreter, frame) -> {
+            Object result = value.run(interpreter, frame);
+            return result == null ? NIL : result;
+        };
+    }
+
+    @Override
+    public Action visitYieldStmt(Stmt.Yield stmt) {
+        Code value = compile(stmt.value);
+        return (interpreter, frame) -> {
+            interpreter.suspend(value.run(interpreter, frame));
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitVarStmt(Stmt.Var stmt) {
+        Code initializer = stmt.Initializer == null ? (interpreter, frame) -> null : compile(stmt.Initializer);
+        if (stmt.slot >= 0) {
+            int slot = stmt.slot;
+            return (interpreter, frame) -> {
+                frame[slot] = initializer.run(interpreter, frame);
+                return null;
+            };
+        }
+        GlobalCell cell = stmt.cell;
+        Token name = stmt.name;
+        return (interpreter, frame) -> {
+            interpreter.define(cell, name, initializer.run(interpreter, frame));
+            return null;
+        };
+    }
+
+    @Override
+    public Action visitWhileStmt(Stmt.While stmt) {
+        Code condition = compile(stmt.condition);
+        Action body = compile(stmt.body);
+        if (stmt.invariants == 0) {
+            return (interpreter, frame) -> {
+                while (Interpreter.isTruthy(condition.run(interpreter, frame))) {
+                    Object result = body.run(interpreter, frame);
+                    if (result != null) { return result; }
+                }
+                return null;
+            };
+        }
+
+        int invariants = stmt.invariants;
+        return (interpreter, frame) -> {
+            Object[] enclosing = interpreter.invariants;
+            try {
+                interpreter.invariants = uncached(invariants);
+                while (Interpreter.isTruthy(condition.run(interpreter, frame))) {
+                    Object result = body.run(interpreter, frame);
+                    if (result != null) { return result; }
+                }
+                return null;
+            } finally {
+                interpreter.invariants = enclosing;
+            }
+        };
+    }
+
+    private static Object[] uncached(int size) {
+        Object[] invariants = new Object[size];
+        Arrays.fill(invariants, Interpreter.UNCACHED);
+        return invariants;
+    }
+
+    @Override
+    public Action visitProbeStmt(Stmt.Probe stmt) {
+        Action statement = compile(stmt.statement);
+        Hotspots.Node node = stmt.node;
+        return (interpreter, frame) -> {
+            long enclosing = interpreter.probed;
+            interpreter.probed = 0;
+            long start = System.nanoTime();
+            try {
+                return statement.run(interpreter, frame);
+            } finally {
+                node.exit(interpreter, enclosing, start);
+            }
+        };
+    }
+
+    @Override
+    public Action visitCountedLoopStmt(Stmt.CountedLoop stmt) {
+        Code start = compile(stmt.counter);
+        Code limit = compile(stmt.limit);
+        Action body = sequence(stmt.body);
+        Action loop = compile(stmt.loop);
+        Store counter = store(stmt.counter.slot, stmt.counter.depth, stmt.counter.cell, stmt.counter.name);
+        Token operator = stmt.operator;
+        double step = stmt.step;
+        int invariants = stmt.loop.invariants;
+        boolean captures = ((Stmt.Block)stmt.loop.body).captures;
+
+        return (interpreter, frame) -> {
+            Object[] enclosing = interpreter.invariants;
+            try {
+                interpreter.invariants = uncached(invariants);
+                Object from = start.run(interpreter, frame);
+                Object to = limit.run(interpreter, frame);
+                if (!(from instanceof Double) || !(to instanceof Double)) {
+                    interpreter.invariants = enclosing;
+                    return loop.run(interpreter, frame);
+                }
+
+                double i = (double)from;
+                double bound = (double)to;
+                while (Interpreter.compare(operator, i, bound)) {
+                    Object result = captures ? scoped(interpreter, body, frame) : body.run(interpreter, frame);
+                    if (result != null) { return result; }
+                    i += step;
+                    counter.set(interpreter, frame, i);
+                }
+                return null;
+            } finally {
+                interpreter.invariants = enclosing;
+            }
+        };
+    }
+
+    @Override
+    public Action visitFunctionStmt(Stmt.Function stmt) {
+        if (stmt.slot >= 0) {
+            int slot = stmt.slot;
+            return (interpreter, frame) -> {
+                frame[slot] = new LoxFunction(stmt, interpreter.environment);
+                return null;
+            };
+        }
+        return (interpreter, frame) -> {
+            interpreter.define(stmt.cell, stmt.name, new LoxFunction(stmt, interpreter.environment));
+            return null;
+        };
+    }
+}
@@ -1,42 +1,66 @@
 package org.example.lox;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Environment {
-    private final Map<String, Object> values = new HashMap<>();
+    // Stands for nil, which a ConcurrentHashMap can't hold.
+    private static final Object NIL = new Object();
+
+    // Concurrent because a task may read variables it captured while their owner defines or
+    // assigns others in the same scope.
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
     final Environment enclosing;
+    // The interpreter that made it, null for the global scope. A parallel worker may only assign
+    // to variables in environments it made; the rest are shared with the other workers.
+    final Interpreter owner;
 
     Environment () {
         this.enclosing = null;
+        this.owner = null;
     }
 
-    Environment (Environment enclosing) {
+    Environment (Environment enclosing, Interpreter owner) {
         this.enclosing = enclosing;
+        this.owner = owner;
+        Metrics.ENVIRONMENTS.increment();
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) { return values.get(name.lexeme); }
+        Object value = values.get(name.lexeme);
+        if (value != null) { return unwrap(value); }
         if (this.enclosing != null) { return this.enclosing.get(name); }
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        values.put(name, wrap(value));
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) { values.put(name.lexeme, value); return; }
+        Object previous = values.replace(name.lexeme, wrap(value));
+        if (previous != null) {
+            Memo.rebound(previous);
+            return;
+        }
         if (this.enclosing != null) { this.enclosing.assign(name, value); return; }
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
     Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+        return unwrap(ancestor(distance).values.get(name));
     }
 
     void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        Memo.rebound(ancestor(distance).values.put(name.lexeme, wrap(value)));
+    }
+
+    private static Object wrap(Object value) {
+        return value == null ? NIL : value;
+    }
+
+    private static Object unwrap(Object value) {
+        return value == NIL ? null : value;
     }
 
     Environment ancestor(int distance) {
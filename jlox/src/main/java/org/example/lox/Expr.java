@@ -9,7 +9,10 @@ abstract class Expr {
 		R visitCallExpr (Call expr);
 		R visitGroupingExpr (Grouping expr);
 		R visitGetExpr (Get expr);
+		R visitInlineExpr (Inline expr);
+		R visitInvariantExpr (Invariant expr);
 		R visitLiteralExpr (Literal expr);
+		R visitProbeExpr (Probe expr);
 		R visitLogicalExpr (Logical expr);
 		R visitSetExpr (Set expr);
 		R visitUnaryExpr (Unary expr);
@@ -23,6 +26,9 @@ abstract class Expr {
 
 		final Token name;
 		final Expr value;
+		int depth = -1;
+		int slot = -1;
+		GlobalCell cell;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
@@ -40,6 +46,7 @@ abstract class Expr {
 		final Expr left;
 		final Token operator;
 		final Expr right;
+		LoxType operands;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
@@ -57,6 +64,8 @@ abstract class Expr {
 		final Expr callee;
 		final Token paren;
 		final List<Expr> arguments;
+		NativeFunction intrinsic;
+		JavaSite java;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
@@ -85,6 +94,7 @@ abstract class Expr {
 
 		final Expr object;
 		final Token name;
+		JavaSite java;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
@@ -92,6 +102,41 @@ abstract class Expr {
 		}
 	}
 
+	static class Inline extends Expr {
+		Inline (Expr.Call call, Stmt.Function function, Expr body, boolean bound) { 
+			this.call = call;
+			this.function = function;
+			this.body = body;
+			this.bound = bound;
+		}
+
+		final Expr.Call call;
+		final Stmt.Function function;
+		final Expr body;
+		final boolean bound;
+		int[] paramSlots;
+
+		@Override
+		<R> R accept (Visitor<R> visitor) {
+			return visitor.visitInlineExpr(this);
+		}
+	}
+
+	static class Invariant extends Expr {
+		Invariant (Expr expression, int slot) { 
+			this.expression = expression;
+			this.slot = slot;
+		}
+
+		final Expr expression;
+		final int slot;
+
+		@Override
+		<R> R accept (Visitor<R> visitor) {
+			return visitor.visitInvariantExpr(this);
+		}
+	}
+
 	static class Literal extends Expr {
 		Literal (Object value) { 
 			this.value = value;
@@ -105,6 +150,21 @@ abstract class Expr {
 		}
 	}
 
+	static class Probe extends Expr {
+		Probe (Expr expression, Hotspots.Node node) { 
+			this.expression = expression;
+			this.node = node;
+		}
+
+		final Expr expression;
+		final Hotspots.Node node;
+
+		@Override
+		<R> R accept (Visitor<R> visitor) {
+			return visitor.visitProbeExpr(this);
+		}
+	}
+
 	static class Logical extends Expr {
 		Logical (Expr left, Token operator, Expr right) { 
 			this.left = left;
@@ -160,6 +220,9 @@ abstract class Expr {
 		}
 
 		final Token name;
+		int depth = -1;
+		int slot = -1;
+		GlobalCell cell;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
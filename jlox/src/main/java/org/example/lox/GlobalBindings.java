@@ -0,0 +1,93 @@
+package org.example.lox;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.script.Bindings;
+
+// The engine's ENGINE_SCOPE: a view of the interpreter's globals, so a binding put here is a Lox
+// global and a global the script defines is a binding, with nothing copied either way. Lookups go
+// straight to the global's cell; only iterating walks them all.
+class GlobalBindings extends AbstractMap<String, Object> implements Bindings {
+    private final Globals globals;
+
+    GlobalBindings(Globals globals) {
+        this.globals = globals;
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        GlobalCell cell = globals.cell(checkName(name));
+        Object previous = cell.get();
+        cell.define(LoxScriptEngine.toLox(value));
+        return toJava(previous);
+    }
+
+    @Override
+    public Object get(Object key) {
+        GlobalCell cell = globals.find(checkName(key));
+        return cell == null ? null : toJava(cell.get());
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        GlobalCell cell = globals.find(checkName(key));
+        return cell != null && cell.defined();
+    }
+
+    // The cell stays, since resolved code may still refer to it; it just reads as undefined again.
+    @Override
+    public Object remove(Object key) {
+        GlobalCell cell = globals.find(checkName(key));
+        if (cell == null) { return null; }
+        Object previous = cell.get();
+        cell.undefine();
+        return toJava(previous);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < globals.size(); i++) {
+            globals.get(i).undefine();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        List<Map.Entry<String, Object>> entries = new ArrayList<>();
+        for (int i = 0; i < globals.size(); i++) {
+            GlobalCell cell = globals.get(i);
+            Object value = cell.get();
+            if (value != GlobalCell.UNDEFINED) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(cell.name, LoxScriptEngine.toJava(value)));
+            }
+        }
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return entries.iterator();
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    // An undefined global reads as absent.
+    private static Object toJava(Object value) {
+        return value == GlobalCell.UNDEFINED ? null : LoxScriptEngine.toJava(value);
+    }
+
+    private static String checkName(Object key) {
+        if (key == null) { throw new NullPointerException("Binding name is null."); }
+        String name = (String) key;
+        if (name.isEmpty()) { throw new IllegalArgumentException("Binding name is empty."); }
+        return name;
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Storage for one global variable. The Resolver hands the same cell to every site naming the
+// global, so reading or writing it is a field access rather than a lookup by name.
+// Spawned tasks read globals while the program goes on writing them, so writes are releases and
+// reads acquires: a task sees a value whole, with everything written before it, and on x86 it
+// costs no more than a plain field, where volatile would fence every store. Whether the global is
+// defined is part of the same field, so a read is one load and one compare.
+class GlobalCell {
+    // What the cell holds while the global isn't defined.
+    static final Object UNDEFINED = new Object();
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(GlobalCell.class, "value", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    final String name;
+    final int index;
+    private Object value = UNDEFINED;
+
+    GlobalCell(String name, int index) {
+        this.name = name;
+        this.index = index;
+    }
+
+    // UNDEFINED unless the global is defined.
+    Object get() {
+        return VALUE.getAcquire(this);
+    }
+
+    boolean defined() {
+        return get() != UNDEFINED;
+    }
+
+    // Only the owner writes globals, so it can read what it is replacing with a plain load.
+    void set(Object value) {
+        Memo.rebound(this.value);
+        VALUE.setRelease(this, value);
+    }
+
+    void define(Object value) {
+        Memo.rebound(this.value);
+        VALUE.setRelease(this, value);
+    }
+
+    void undefine() {
+        Memo.rebound(this.value);
+        VALUE.setRelease(this, UNDEFINED);
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Global variables, indexed in the order they are first mentioned. Cells are created on first
+// reference rather than on definition, since a function may name a global declared after it.
+class Globals {
+    private final Map<String, GlobalCell> names = new HashMap<>();
+    private GlobalCell[] cells = new GlobalCell[16];
+    private int count = 0;
+
+    GlobalCell cell(String name) {
+        GlobalCell cell = names.get(name);
+        if (cell == null) {
+            if (count == cells.length) { cells = Arrays.copyOf(cells, count * 2); }
+            cell = new GlobalCell(name, count);
+            cells[count++] = cell;
+            names.put(name, cell);
+        }
+        return cell;
+    }
+
+    // The cell, or null if nothing has named the global yet.
+    GlobalCell find(String name) {
+        return names.get(name);
+    }
+
+    GlobalCell get(int index) {
+        return cells[index];
+    }
+
+    int size() {
+        return count;
+    }
+
+    void define(String name, Object value) {
+        GlobalCell cell = cell(name);
+        cell.define(value);
+    }
+}
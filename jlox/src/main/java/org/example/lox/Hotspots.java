@@ -0,0 +1,303 @@
+package org.example.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-node execution counts and self time, on with --hot-report. Rather than test a flag in every
+// visit method, the optimized tree is rewritten before it is resolved, with a Probe around each
+// statement and expression; both tiers time a probe and charge its node for the time not spent in
+// probes nested inside it. Without the flag nothing is wrapped, so nothing is paid. Callees and the
+// parts of a counted loop the loop itself reads stay unwrapped, so intrinsics and counted loops
+// still form, but inlined calls are made as plain calls again so the callee's lines show up. A
+// generator's body runs on its own thread inside the caller's probe around hasNext or next, so its
+// time is charged both there and to its own nodes.
+class Hotspots implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    static final class Node {
+        final int line;
+        final String kind;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder self = new LongAdder();
+
+        Node(int line, String kind) {
+            this.line = line;
+            this.kind = kind;
+        }
+
+        // Charges the time since start, less what nested probes took, and passes the whole span on
+        // to the probe enclosing this one.
+        void exit(Interpreter interpreter, long enclosing, long start) {
+            long elapsed = System.nanoTime() - start;
+            count.increment();
+            self.add(elapsed - interpreter.probed);
+            interpreter.probed = enclosing + elapsed;
+        }
+    }
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final int limit;
+    // The line of the last token seen, for the nodes that have none of their own.
+    private int line = 1;
+
+    Hotspots(int limit) {
+        this.limit = limit;
+    }
+
+    List<Stmt> instrument(List<Stmt> statements) {
+        List<Stmt> instrumented = new ArrayList<>();
+        for (Stmt stmt: statements) {
+            instrumented.add(instrument(stmt));
+        }
+        return instrumented;
+    }
+
+    private Stmt instrument(Stmt stmt) {
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private Expr instrument(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private List<Expr> instrumentAll(List<Expr> exprs) {
+        List<Expr> instrumented = new ArrayList<>();
+        for (Expr expr: exprs) {
+            instrumented.add(instrument(expr));
+        }
+        return instrumented;
+    }
+
+    private int at(Token token) {
+        line = token.line;
+        return line;
+    }
+
+    private Node node(int line, Object target) {
+        Node node = new Node(line, target.getClass().getSimpleName());
+        synchronized (nodes) { nodes.add(node); }
+        return node;
+    }
+
+    private Expr probe(Expr expr, int line) {
+        return new Expr.Probe(expr, node(line, expr));
+    }
+
+    private Stmt probe(Stmt stmt, int line) {
+        return new Stmt.Probe(stmt, node(line, stmt));
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        int line = at(expr.name);
+        return probe(new Expr.Assign(expr.name, instrument(expr.value)), line);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = instrument(expr.left);
+        int line = at(expr.operator);
+        return probe(new Expr.Binary(left, expr.operator, instrument(expr.right)), line);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        return probe(call(expr), expr.paren.line);
+    }
+
+    // The callee stays as it is: the Resolver and both tiers look at what it is.
+    private Expr.Call call(Expr.Call expr) {
+        Expr callee = expr.callee instanceof Expr.Get
+                ? new Expr.Get(instrument(((Expr.Get) expr.callee).object), ((Expr.Get) expr.callee).name)
+                : expr.callee;
+        at(expr.paren);
+        return new Expr.Call(callee, expr.paren, instrumentAll(expr.arguments));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return instrument(expr.expression);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = instrument(expr.object);
+        int line = at(expr.name);
+        return probe(new Expr.Get(object, expr.name), line);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return visitCallExpr(expr.call);
+    }
+
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        Expr expression = instrument(expr.expression);
+        return probe(new Expr.Invariant(expression, expr.slot), line);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return probe(expr, line);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = instrument(expr.left);
+        int line = at(expr.operator);
+        return probe(new Expr.Logical(left, expr.operator, instrument(expr.right)), line);
+    }
+
+    @Override
+    public Expr visitProbeExpr(Expr.Probe expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        int line = at(expr.operator);
+        return probe(new Expr.Unary(expr.operator, instrument(expr.right)), line);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        int line = at(expr.name);
+        return probe(new Expr.Variable(expr.name), line);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        int line = this.line;
+        return probe(new Stmt.Block(instrument(stmt.statements)), line);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = instrument(stmt.expression);
+        return probe(new Stmt.Expression(expression), line);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = instrument(stmt.condition);
+        int line = this.line;
+        Stmt thenBranch = instrument(stmt.thenBranch);
+        Stmt elseBranch = instrument(stmt.elseBranch);
+        return probe(new Stmt.If(condition, thenBranch, elseBranch), line);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        int line = at(stmt.keyword);
+        return probe(new Stmt.Print(stmt.keyword, instrument(stmt.expression)), line);
+    }
+
+    @Override
+    public Stmt visitProbeStmt(Stmt.Probe stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        int line = at(stmt.keyword);
+        return probe(new Stmt.Return(stmt.keyword, instrument(stmt.value)), line);
+    }
+
+    @Override
+    public Stmt visitYieldStmt(Stmt.Yield stmt) {
+        int line = at(stmt.keyword);
+        return probe(new Stmt.Yield(stmt.keyword, instrument(stmt.value)), line);
+    }
+
+    // Classes have no methods to look into yet.
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        at(stmt.name);
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        int line = at(stmt.name);
+        return probe(new Stmt.Var(stmt.name, instrument(stmt.Initializer)), line);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        return probe(loop(stmt), line);
+    }
+
+    private Stmt.While loop(Stmt.While stmt) {
+        Expr condition = instrument(stmt.condition);
+        Stmt.While loop = new Stmt.While(condition, instrument(stmt.body));
+        loop.invariants = stmt.invariants;
+        return loop;
+    }
+
+    // The counter, the condition and the body's block are read by the counted loop itself, and it
+    // shares them with its fallback loop, so only what is inside them is wrapped.
+    @Override
+    public Stmt visitCountedLoopStmt(Stmt.CountedLoop stmt) {
+        int line = at(stmt.counter.name);
+        Expr.Binary condition = (Expr.Binary) stmt.loop.condition;
+        Expr.Binary bound = new Expr.Binary(condition.left, condition.operator, instrument(condition.right));
+        List<Stmt> statements = instrument(((Stmt.Block) stmt.loop.body).statements);
+        Stmt.While loop = new Stmt.While(bound, new Stmt.Block(statements));
+        loop.invariants = stmt.loop.invariants;
+        return probe(new Stmt.CountedLoop(stmt.counter, stmt.operator, bound.right, stmt.step,
+                new ArrayList<>(statements.subList(0, statements.size() - 1)), loop), line);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        at(stmt.name);
+        return new Stmt.Function(stmt.name, stmt.params, instrument(stmt.body), stmt.pure, stmt.generator);
+    }
+
+    // The lines, then the nodes, that took the most time outside the probes nested in them. A
+    // line's runs are those of the busiest node on it.
+    void report(PrintStream out) {
+        List<Node> nodes;
+        synchronized (this.nodes) { nodes = new ArrayList<>(this.nodes); }
+        Map<Integer, long[]> lines = new HashMap<>();
+        long total = 0;
+        for (Node node: nodes) {
+            long self = node.self.sum();
+            long count = node.count.sum();
+            total += self;
+            long[] line = lines.computeIfAbsent(node.line, key -> new long[2]);
+            line[0] += self;
+            line[1] = Math.max(line[1], count);
+        }
+
+        List<Map.Entry<Integer, long[]>> hottest = new ArrayList<>(lines.entrySet());
+        hottest.sort(Comparator.comparingLong((Map.Entry<Integer, long[]> entry) -> entry.getValue()[0]).reversed());
+        out.printf("[hot] %.1f ms in %d nodes, by line:%n", total / 1e6, nodes.size());
+        for (Map.Entry<Integer, long[]> entry: hottest.subList(0, Math.min(limit, hottest.size()))) {
+            long[] line = entry.getValue();
+            out.printf("[hot]   line %d: %.2f ms (%.1f%%), %d runs%n", entry.getKey(), line[0] / 1e6,
+                    percent(line[0], total), line[1]);
+        }
+
+        nodes.sort(Comparator.comparingLong((Node node) -> node.self.sum()).reversed());
+        out.println("[hot] by node:");
+        for (Node node: nodes.subList(0, Math.min(limit, nodes.size()))) {
+            long self = node.self.sum();
+            out.printf("[hot]   line %d %s: %.2f ms (%.1f%%), %d runs%n", node.line, node.kind, self / 1e6,
+                    percent(self, total), node.count.sum());
+        }
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+}
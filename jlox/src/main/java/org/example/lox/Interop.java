@@ -0,0 +1,65 @@
+package org.example.lox;
+
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The Java classes scripts may reach, named by the host with --java or LoxScriptEngine.allow.
+// javaClass hands out a class's statics and constructors; an object the host passes in, or a Java
+// method returns, has its public members usable when its class, a superclass or an interface is
+// allowed. Shared by an interpreter and everything forked from it.
+class Interop {
+    private final Set<String> allowed = ConcurrentHashMap.newKeySet();
+    private final Map<String, JavaClass> classes = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Boolean> checked = new ConcurrentHashMap<>();
+
+    Interop() {
+        allowed.add("java.lang.Math");
+    }
+
+    void allow(String name) {
+        allowed.add(name);
+        checked.clear();
+    }
+
+    JavaClass javaClass(String name) {
+        JavaClass known = classes.get(name);
+        if (known != null) { return known; }
+        if (!allowed.contains(name)) { throw new NativeError("Java class '" + name + "' is not allowed."); }
+
+        Class<?> type;
+        try {
+            type = Class.forName(name, true, loader());
+        } catch (ClassNotFoundException e) {
+            throw new NativeError("There is no Java class '" + name + "'.");
+        }
+        if (!Modifier.isPublic(type.getModifiers())) {
+            throw new NativeError("Java class '" + name + "' is not public.");
+        }
+        return classes.computeIfAbsent(name, key -> new JavaClass(type));
+    }
+
+    // Whether a property of value is a Java member. Lox's own values never are.
+    boolean isJava(Object value) {
+        if (value instanceof JavaClass) { return true; }
+        if (value == null) { return false; }
+        return checked.computeIfAbsent(value.getClass(), this::allowed);
+    }
+
+    private boolean allowed(Class<?> type) {
+        if (type.getPackage() == Interop.class.getPackage()) { return false; }
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            if (allowed.contains(current.getName())) { return true; }
+            for (Class<?> implemented: current.getInterfaces()) {
+                if (allowed(implemented)) { return true; }
+            }
+        }
+        return false;
+    }
+
+    private static ClassLoader loader() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        return loader != null ? loader : Interop.class.getClassLoader();
+    }
+}
@@ -1,30 +1,91 @@
 package org.example.lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();;
+    final Globals globals;
+    final StringTable strings;
+    final OutputBuffer out;
+    final Tiering tiering;
+    final Interop interop;
+    // The interpreter this one was forked from, null for the one running the program.
+    private final Interpreter parent;
+    // Set for a fork running on another thread alongside its parent, clear for a coroutine.
+    private final boolean isolated;
+    // The generator whose body this coroutine runs, which yield hands values to.
+    private final LoxGenerator.State generator;
+    // The state below is shared with code compiled by the ClosureCompiler.
+    Environment environment;
+    // Locals no closure captures, indexed by the slots the Resolver hands out.
+    Object[] frame = new Object[0];
+    static final Object UNCACHED = new Object();
+    Object[] invariants;
+    // The function whose body is running, which gets charged for the loop iterations.
+    private LoxFunction current;
+    // Nanoseconds spent in the probes nested in the one running now, see Hotspots.
+    long probed;
+    // The shadow stack the profiler samples, when it is on.
+    Profiler.Stack profile;
+    int memoCapacity = Memo.DEFAULT_CAPACITY;
+    // Every memo created, when their statistics were asked for.
+    List<Memo> memos;
+    // The nodes being counted, with --hot-report.
+    Hotspots hotspots;
 
     Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+        this(new OutputBuffer());
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis()/1000.0;
-            }
+    Interpreter(OutputBuffer out) {
+        this.globals = new Globals();
+        this.strings = new StringTable();
+        this.out = out;
+        this.tiering = new Tiering();
+        this.interop = new Interop();
+        this.parent = null;
+        this.isolated = false;
+        this.generator = null;
+        this.environment = new Environment();
+        Natives.install(globals);
+    }
 
-            @Override
-            public String toString() { return "clock<native fn>"; }
-        });
+    // Both kinds share the globals, the resolved and compiled code and everything the program made
+    // so far, and have their own frame and environments.
+    private Interpreter(Interpreter parent, boolean isolated, LoxGenerator.State generator) {
+        this.globals = parent.globals;
+        this.strings = parent.strings;
+        this.out = isolated ? parent.out.fork() : parent.out;
+        this.tiering = parent.tiering;
+        this.interop = parent.interop;
+        this.parent = parent;
+        this.isolated = isolated;
+        this.generator = generator;
+        this.environment = parent.environment;
+        this.profile = parent.profile == null ? null : parent.profile.fork(isolated ? "<worker>" : "<generator>");
+        this.memoCapacity = parent.memoCapacity;
+        this.memos = parent.memos;
+        this.hotspots = parent.hotspots;
+    }
+
+    // A worker running alongside this interpreter, see Parallel and LoxTask. It has its own output
+    // buffer and may only change what it makes itself.
+    Interpreter fork() {
+        return new Interpreter(this, true, null);
+    }
+
+    // The context a generator's body runs in. It only runs while this interpreter waits for it, so
+    // it may change whatever this one may, and prints straight into its buffer.
+    Interpreter coroutine(LoxGenerator.State generator) {
+        return new Interpreter(this, false, generator);
+    }
+
+    // Whether this interpreter may change something made by owner, null standing for the globals.
+    // The main one may change anything, a worker only what it made.
+    boolean owns(Interpreter owner) {
+        if (parent == null || owner == this) { return true; }
+        return !isolated && parent.owns(owner);
     }
 
     public void interpret(List<Stmt> statemnts) {
@@ -33,15 +94,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 execute(stmt);
             }
         } catch (RuntimeError err) {
-            Lox.runtimeError(err);
+            Lox.runtimeError(this, err);
         }
     }
 
-    private void execute(Stmt stmt) { stmt.accept(this); }
+    void execute(Stmt stmt) { stmt.accept(this); }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (stmt.captures) {
+            executeBlock(stmt.statements, new Environment(environment, this));
+        } else {
+            for (Stmt statement: stmt.statements) {
+                execute(statement);
+            }
+        }
         return null;
     }
 
@@ -64,7 +131,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -76,20 +143,44 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new Return(value);
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        suspend(evaluate(stmt.value));
+        return null;
+    }
+
+    void suspend(Object value) {
+        generator.suspend(value);
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
-        environment.define(stmt.name.lexeme, null);
         LoxClass klass = new LoxClass(stmt.name.lexeme);
-        environment.assign(stmt.name, klass);
+        define(stmt.cell, stmt.name, klass);
         return null;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return property(expr, evaluate(expr.object));
+    }
+
+    Object property(Expr.Get expr, Object object) {
         if (object instanceof LoxInstance) {
             return ((LoxInstance) object).get(expr.name);
         }
+        if (interop.isJava(object)) {
+            JavaSite site = expr.java;
+            if (site == null) {
+                site = JavaSite.property(expr.name.lexeme);
+                expr.java = site;
+            }
+            try {
+                return site.get(object);
+            } catch (NativeError error) {
+                throw new RuntimeError(expr.name, error.getMessage());
+            }
+        }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
@@ -98,36 +189,147 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Void visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.Initializer != null) { value = evaluate(stmt.Initializer); }
-        environment.define(stmt.name.lexeme, value);
+        if (stmt.slot >= 0) {
+            frame[stmt.slot] = value;
+        } else {
+            define(stmt.cell, stmt.name, value);
+        }
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.compiled != null) { return executeCompiled(stmt.compiled); }
+        if (stmt.invariants == 0) {
+            loop(stmt);
+            return null;
+        }
+
+        Object[] enclosing = invariants;
+        try {
+            invariants = new Object[stmt.invariants];
+            Arrays.fill(invariants, UNCACHED);
+            loop(stmt);
+        } finally {
+            invariants = enclosing;
+        }
+        return null;
+    }
+
+    // Once a loop has run hot it is compiled and the rest of it runs there, starting from the next
+    // check of the condition. Everything it needs is in the shared environment and frame.
+    private void loop(Stmt.While stmt) {
+        int backEdges = 0;
         while(isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            if (current != null) { current.backEdges++; }
+            if (++backEdges >= tiering.threshold) {
+                executeCompiled(tiering.replace(stmt, current, backEdges));
+                return;
+            }
         }
+    }
+
+    @Override
+    public Void visitCountedLoopStmt(Stmt.CountedLoop stmt) {
+        if (stmt.compiled != null) { return executeCompiled(stmt.compiled); }
+
+        Object[] enclosing = invariants;
+        try {
+            invariants = new Object[stmt.loop.invariants];
+            Arrays.fill(invariants, UNCACHED);
+
+            Object start = evaluate(stmt.counter);
+            Object limit = evaluate(stmt.limit);
+            if (!(start instanceof Double) || !(limit instanceof Double)) {
+                invariants = enclosing;
+                execute(stmt.loop);
+                return null;
+            }
+
+            double counter = (double)start;
+            double bound = (double)limit;
+            boolean captures = ((Stmt.Block)stmt.loop.body).captures;
+            int backEdges = 0;
+            while (compare(stmt.operator, counter, bound)) {
+                if (captures) {
+                    executeBlock(stmt.body, new Environment(environment, this));
+                } else {
+                    for (Stmt statement: stmt.body) {
+                        execute(statement);
+                    }
+                }
+                counter += stmt.step;
+                assign(stmt.counter.slot, stmt.counter.depth, stmt.counter.cell, stmt.counter.name, counter);
+                if (current != null) { current.backEdges++; }
+                // The compiled loop picks the count up from the counter variable.
+                if (++backEdges >= tiering.threshold) {
+                    return executeCompiled(tiering.replace(stmt, current, backEdges));
+                }
+            }
+        } finally {
+            invariants = enclosing;
+        }
+        return null;
+    }
+
+    private Void executeCompiled(ClosureCompiler.Action loop) {
+        Object result = loop.run(this, frame);
+        if (result != null) { throw new Return(ClosureCompiler.returned(result)); }
         return null;
     }
 
+    static boolean compare(Token operator, double left, double right) {
+        switch (operator.type) {
+            case TokenType.LESS: return left < right;
+            case TokenType.LESS_EQUAL: return left <= right;
+            case TokenType.GREATER: return left > right;
+            case TokenType.GREATER_EQUAL: return left >= right;
+        } return false;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction function = new LoxFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
+        if (stmt.slot >= 0) {
+            frame[stmt.slot] = function;
+        } else {
+            define(stmt.cell, stmt.name, function);
+        }
         return null;
     }
 
+    void define(GlobalCell cell, Token name, Object value) {
+        if (cell != null) {
+            cell.define(value);
+        } else {
+            environment.define(name.lexeme, value);
+        }
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
+        assign(expr.slot, expr.depth, expr.cell, expr.name, value);
+        return value;
+    }
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+    void assign(int slot, int depth, GlobalCell cell, Token name, Object value) {
+        if (slot >= 0) {
+            frame[slot] = value;
+        } else if (depth >= 0) {
+            if (!owns(environment.ancestor(depth).owner)) { throw shared(name); }
+            environment.assignAt(depth, name, value);
         } else {
-            globals.assign(expr.name, value);
+            if (!cell.defined()) { throw undefined(name); }
+            if (!owns(null)) { throw shared(name); }
+            cell.set(value);
         }
-        return value;
+    }
+
+    private static RuntimeError shared(Token name) {
+        return new RuntimeError(name, "Can't assign to '" + name.lexeme
+                + "' here, it is shared with other tasks or workers.");
     }
 
     @Override
@@ -135,9 +337,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
+        if (expr.operands == LoxType.NUMBER) {
+            return arithmetic(expr.operator, (double)left, (double)right);
+        } else if (expr.operands == LoxType.STRING) {
+            return strings.dynamic(Rope.concat((CharSequence)left, (CharSequence)right));
+        }
+
         switch(expr.operator.type) {
             case TokenType.MINUS:
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperands(expr.operator, left, right);
                 return (double)left - (double)right;
             case TokenType.STAR:
                 checkNumberOperands(expr.operator, left, right);
@@ -148,8 +356,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             case TokenType.PLUS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double)left + (double)right;
-                } else if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
+                } else if (Rope.isString(left) && Rope.isString(right)) {
+                    return strings.dynamic(Rope.concat((CharSequence)left, (CharSequence)right));
                 } else { return null; }
             case TokenType.GREATER:
                 checkNumberOperands(expr.operator, left, right);
@@ -168,25 +376,108 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         } return null;
     }
 
+    // Operands already proven to be numbers by the TypeInferrer, so no checks are needed.
+    private Object arithmetic(Token operator, double left, double right) {
+        switch(operator.type) {
+            case TokenType.MINUS: return left - right;
+            case TokenType.STAR: return left * right;
+            case TokenType.SLASH: return left / right;
+            case TokenType.PLUS: return left + right;
+            case TokenType.GREATER: return left > right;
+            case TokenType.GREATER_EQUAL: return left >= right;
+            case TokenType.LESS: return left < right;
+            case TokenType.LESS_EQUAL: return left <= right;
+            case TokenType.BANG_EQUAL: return Double.compare(left, right) != 0;
+            case TokenType.EQUAL_EQUAL: return Double.compare(left, right) == 0;
+        } return null;
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance) && interop.isJava(object)) {
+                Object[] arguments = new Object[expr.arguments.size()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = evaluate(expr.arguments.get(i));
+                }
+                return javaCall(expr, object, arguments);
+            }
+            return call(expr, property(get, object));
+        }
+
         Object callee = evaluate(expr.callee);
+        if (callee == expr.intrinsic && callee != null) { return intrinsic(expr, expr.intrinsic); }
+        return call(expr, callee);
+    }
 
+    // The callee is still the native the Resolver saw, so the checks in invoke are known to pass
+    // and the arguments can go straight to the native's entry point for their count.
+    private Object intrinsic(Expr.Call expr, NativeFunction function) {
+        List<Expr> arguments = expr.arguments;
+        try {
+            switch (arguments.size()) {
+                case 0: return function.call0(this);
+                case 1: return function.call1(this, evaluate(arguments.get(0)));
+                case 2: return function.call2(this, evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+                default:
+                    return function.call3(this, evaluate(arguments.get(0)), evaluate(arguments.get(1)),
+                            evaluate(arguments.get(2)));
+            }
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    private Object call(Expr.Call expr, Object callee) {
         List<Object> arguments = new ArrayList<>();
         for(Expr argument: expr.arguments) {
             arguments.add(evaluate(argument));
         }
+        return invoke(expr.paren, callee, arguments);
+    }
 
+    // A method called where it is named, through the call's own site, without making a JavaMethod.
+    Object javaCall(Expr.Call expr, Object receiver, Object[] arguments) {
+        JavaSite site = expr.java;
+        if (site == null) {
+            site = JavaSite.method(((Expr.Get) expr.callee).name.lexeme);
+            expr.java = site;
+        }
+        if (current != null && current.declaration.pure) {
+            throw new RuntimeError(expr.paren, "Can't call Java method '" + ((Expr.Get) expr.callee).name.lexeme
+                    + "' from pure function '" + current.declaration.name.lexeme + "'.");
+        }
+        try {
+            return site.call(receiver, arguments);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    Object invoke(Token paren, Object callee, List<Object> arguments) {
         if(!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can call only functions and classes.");
+            throw new RuntimeError(paren, "Can call only functions and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
-        if(arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren,
+        // The Resolver can't tell what a global or captured callee will be, so this is checked here.
+        if (current != null && current.declaration.pure && !function.pure()) {
+            throw new RuntimeError(paren, "Can't call impure " + stringify(callee) + " from pure function '"
+                    + current.declaration.name.lexeme + "'.");
+        }
+
+        if(function.arity() >= 0 && arguments.size() != function.arity()) {
+            throw new RuntimeError(paren,
                     "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
-        return function.call(this, arguments);
+        if (profile != null) { profile.at(paren.line); }
+        try {
+            return function.call(this, arguments);
+        } catch (NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        }
     }
 
     @Override
@@ -194,6 +485,56 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.expression);
     }
 
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr) {
+        Object callee = evaluate(expr.call.callee);
+        if (callee instanceof LoxFunction && ((LoxFunction) callee).declaration == expr.function) {
+            if (expr.bound) {
+                for (int i = 0; i < expr.paramSlots.length; i++) {
+                    frame[expr.paramSlots[i]] = evaluate(expr.call.arguments.get(i));
+                }
+            }
+            return evaluate(expr.body);
+        }
+        return call(expr.call, callee);
+    }
+
+    @Override
+    public Object visitInvariantExpr(Expr.Invariant expr) {
+        Object value = invariants[expr.slot];
+        if (value == UNCACHED) {
+            value = evaluate(expr.expression);
+            invariants[expr.slot] = value;
+        }
+        return value;
+    }
+
+    // Only there with --hot-report, see Hotspots.
+    @Override
+    public Object visitProbeExpr(Expr.Probe expr) {
+        long enclosing = probed;
+        probed = 0;
+        long start = System.nanoTime();
+        try {
+            return evaluate(expr.expression);
+        } finally {
+            expr.node.exit(this, enclosing, start);
+        }
+    }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe stmt) {
+        long enclosing = probed;
+        probed = 0;
+        long start = System.nanoTime();
+        try {
+            execute(stmt.statement);
+        } finally {
+            stmt.node.exit(this, enclosing, start);
+        }
+        return null;
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -221,7 +562,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object right = evaluate(expr.right);
 
         return switch (expr.operator.type) {
-            case TokenType.MINUS -> -(double) right;
+            case TokenType.MINUS -> {
+                checkNumberOperand(expr.operator, right);
+                yield -(double) right;
+            }
             case TokenType.BANG -> !isTruthy(right);
             default -> null;
         };
@@ -229,19 +573,22 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
-    }
-
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if(distance != null) {
-            return environment.getAt(distance, name.lexeme);
+        if (expr.slot >= 0) {
+            return frame[expr.slot];
+        } else if (expr.depth >= 0) {
+            return environment.getAt(expr.depth, expr.name.lexeme);
         } else {
-            return globals.get(name);
+            Object value = expr.cell.get();
+            if (value == GlobalCell.UNDEFINED) { throw undefined(expr.name); }
+            return value;
         }
     }
 
-    private Object evaluate(Expr expr) {
+    static RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
@@ -257,29 +604,60 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private boolean isTruthy(Object obj) {
+    // Runs a function body in the tier it has been promoted to. The tree-walker returns by throwing
+    // Return, compiled code hands back the return value.
+    Object executeBody(LoxFunction function, Environment env, Object[] frame) {
+        ClosureCompiler.Action compiled = function.declaration.compiled;
+        Object[] previousFrame = this.frame;
+        Environment previous = this.environment;
+        LoxFunction enclosing = this.current;
+        Profiler.Stack profile = this.profile;
+        if (profile != null) { profile.push(function.declaration); }
+        try {
+            this.frame = frame;
+            this.environment = env;
+            this.current = function;
+            if (compiled != null) {
+                return ClosureCompiler.returned(compiled.run(this, frame));
+            }
+            for (Stmt stmt: function.declaration.body) {
+                execute(stmt);
+            }
+            return null;
+        } finally {
+            this.frame = previousFrame;
+            this.environment = previous;
+            this.current = enclosing;
+            if (profile != null) { profile.pop(); }
+        }
+    }
+
+    static boolean isTruthy(Object obj) {
         if (obj == null) { return false; }
         if (obj instanceof Boolean) { return (boolean)obj; }
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) { return true; }
-        if (a == null) { return true; }
+    // Interned strings, and any value compared with itself, are settled by the identity check.
+    static boolean isEqual(Object a, Object b) {
+        if (a == b) { return true; }
+        if (a == null) { return false; }
+        // String.equals doesn't know about ropes, so let the rope do the comparing.
+        if (b instanceof Rope) { return b.equals(a); }
         return a.equals(b);
     }
 
-    private void checkNumberOperand(Token operator, Object right) {
+    static void checkNumberOperand(Token operator, Object right) {
         if (right instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be two numbers or two string.");
     }
 
-    public String stringify(Object value) {
+    public static String stringify(Object value) {
         if (value == null) return "nil";
 
         if (value instanceof Double) {
@@ -292,7 +670,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return value.toString();
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    Memo memo(String name) {
+        Memo memo = new Memo(name, memoCapacity);
+        if (memos != null) {
+            synchronized (memos) { memos.add(memo); }
+        }
+        return memo;
+    }
+
+    void reserveSlots(int size) {
+        if (frame.length < size) { frame = Arrays.copyOf(frame, size); }
     }
 }
@@ -0,0 +1,29 @@
+package org.example.lox;
+
+import java.util.List;
+
+// An allowed Java class, as javaClass returns it. Its properties are the class's public static
+// fields and methods, and calling it calls the constructor the arguments fit.
+class JavaClass implements LoxCallable {
+    final Class<?> type;
+    private final JavaSite constructors = JavaSite.constructor();
+
+    JavaClass(Class<?> type) {
+        this.type = type;
+    }
+
+    @Override
+    public int arity() {
+        return -1;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return constructors.call(this, arguments.toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "<java class " + type.getName() + ">";
+    }
+}
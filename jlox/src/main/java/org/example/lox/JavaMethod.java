@@ -0,0 +1,32 @@
+package org.example.lox;
+
+import java.util.List;
+
+// A Java method read as a value, bound to its receiver: a JavaClass for a static method. Calling
+// it picks the overload from the arguments, like a call written at the property does.
+class JavaMethod implements LoxCallable {
+    private final Object receiver;
+    private final String name;
+    private final JavaSite site;
+
+    JavaMethod(Object receiver, String name) {
+        this.receiver = receiver;
+        this.name = name;
+        this.site = JavaSite.method(name);
+    }
+
+    @Override
+    public int arity() {
+        return -1;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return site.call(receiver, arguments.toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "<java method " + name + ">";
+    }
+}
@@ -0,0 +1,411 @@
+package org.example.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// An inline cache for one place that reaches into Java: a call or property read in the tree, or a
+// JavaMethod or JavaClass called as a value. Members are looked up once per receiver class and
+// argument classes, and kept as method handles already adapted to take and return Lox values, so
+// a hit is a few class compares and an invokeExact. A site that sees more than MAX_ENTRIES shapes
+// stops caching and looks the member up on every call.
+final class JavaSite {
+    private static final int MAX_ENTRIES = 4;
+    // Calls with more arguments than this take them in an array.
+    private static final int MAX_EXACT = 4;
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    private static final MethodHandles.Lookup PUBLIC = MethodHandles.publicLookup();
+
+    private static final MethodHandle TO_FLOAT = converter("toFloat", float.class, Object.class);
+    private static final MethodHandle TO_LONG = converter("toLong", long.class, Object.class);
+    private static final MethodHandle TO_INT = converter("toInt", int.class, Object.class);
+    private static final MethodHandle TO_SHORT = converter("toShort", short.class, Object.class);
+    private static final MethodHandle TO_BYTE = converter("toByte", byte.class, Object.class);
+    private static final MethodHandle TO_CHAR = converter("toChar", char.class, Object.class);
+    private static final MethodHandle TO_STRING = converter("toStr", String.class, Object.class);
+    private static final MethodHandle FROM_CHAR = converter("fromChar", Object.class, char.class);
+    private static final MethodHandle FROM_JAVA = converter("fromJava", Object.class, Object.class);
+    private static final MethodHandle BIND_METHOD = converter("bind", Object.class, Object.class, String.class);
+
+    // The member's name, null for a class's constructors.
+    private final String name;
+    // Whether the site reads the member rather than calling it.
+    private final boolean property;
+    // Replaced, never changed, so readers on other threads see whole entries.
+    private volatile Entry[] entries = new Entry[0];
+
+    private JavaSite(String name, boolean property) {
+        this.name = name;
+        this.property = property;
+    }
+
+    static JavaSite constructor() {
+        return new JavaSite(null, false);
+    }
+
+    static JavaSite method(String name) {
+        return new JavaSite(name, false);
+    }
+
+    static JavaSite property(String name) {
+        return new JavaSite(name, true);
+    }
+
+    private static final class Entry {
+        // A JavaClass for statics and constructors, the receiver's class otherwise.
+        final Object receiver;
+        final Class<?>[] arguments;
+        // (Object receiver, Object... arguments)Object, or (Object, Object[])Object past MAX_EXACT.
+        final MethodHandle handle;
+
+        Entry(Object receiver, Class<?>[] arguments, MethodHandle handle) {
+            this.receiver = receiver;
+            this.arguments = arguments;
+            this.handle = handle;
+        }
+
+        boolean matches(Object receiver, Object[] arguments) {
+            if (receiver != this.receiver || arguments.length != this.arguments.length) { return false; }
+            for (int i = 0; i < arguments.length; i++) {
+                Object argument = arguments[i];
+                if ((argument == null ? null : argument.getClass()) != this.arguments[i]) { return false; }
+            }
+            return true;
+        }
+    }
+
+    private static Object key(Object receiver) {
+        return receiver instanceof JavaClass ? receiver : receiver.getClass();
+    }
+
+    // Calls the site's method on the receiver, or its constructor when the receiver is a JavaClass.
+    Object call(Object receiver, Object[] arguments) {
+        MethodHandle handle = lookup(receiver, arguments);
+        try {
+            switch (arguments.length) {
+                case 0: return (Object) handle.invokeExact(receiver);
+                case 1: return (Object) handle.invokeExact(receiver, arguments[0]);
+                case 2: return (Object) handle.invokeExact(receiver, arguments[0], arguments[1]);
+                case 3: return (Object) handle.invokeExact(receiver, arguments[0], arguments[1], arguments[2]);
+                case 4: return (Object) handle.invokeExact(receiver, arguments[0], arguments[1], arguments[2], arguments[3]);
+                default: return (Object) handle.invokeExact(receiver, arguments);
+            }
+        } catch (NativeError | RuntimeError | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new NativeError("Java exception: " + e);
+        }
+    }
+
+    // Reads the site's field, or makes a JavaMethod when the name is a method.
+    Object get(Object receiver) {
+        return call(receiver, NO_ARGUMENTS);
+    }
+
+    private MethodHandle lookup(Object receiver, Object[] arguments) {
+        Object key = key(receiver);
+        for (Entry entry: entries) {
+            if (entry.matches(key, arguments)) {
+                Metrics.INLINE_CACHE_HITS.increment();
+                return entry.handle;
+            }
+        }
+        Metrics.INLINE_CACHE_MISSES.increment();
+        return miss(key, receiver, arguments);
+    }
+
+    private synchronized MethodHandle miss(Object key, Object receiver, Object[] arguments) {
+        Entry[] current = entries;
+        for (Entry entry: current) {
+            if (entry.matches(key, arguments)) { return entry.handle; }
+        }
+
+        Class<?>[] types = new Class<?>[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            types[i] = arguments[i] == null ? null : arguments[i].getClass();
+        }
+        MethodHandle handle = resolve(receiver, types);
+        if (current.length < MAX_ENTRIES) {
+            Entry[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = new Entry(key, types, handle);
+            entries = updated;
+        }
+        return handle;
+    }
+
+    private MethodHandle resolve(Object receiver, Class<?>[] arguments) {
+        boolean statics = receiver instanceof JavaClass;
+        Class<?> type = statics ? ((JavaClass) receiver).type : receiver.getClass();
+        if (name == null) { return constructor(type, arguments); }
+        if (property) { return property(type, statics); }
+        return method(type, statics, arguments);
+    }
+
+    // A public field, or else a JavaMethod bound to the receiver.
+    private MethodHandle property(Class<?> type, boolean statics) {
+        for (Field field: type.getFields()) {
+            if (field.getName().equals(name) && Modifier.isStatic(field.getModifiers()) == statics) {
+                try {
+                    MethodHandle getter = PUBLIC.unreflectGetter(field);
+                    if (statics) { getter = MethodHandles.dropArguments(getter, 0, Object.class); }
+                    return adapt(getter, 1, new Class<?>[0], new Class<?>[0]);
+                } catch (IllegalAccessException e) {
+                    throw new NativeError("Can't access Java field '" + name + "'.");
+                }
+            }
+        }
+        for (Method method: type.getMethods()) {
+            if (method.getName().equals(name) && Modifier.isStatic(method.getModifiers()) == statics
+                    && visible(method)) {
+                return MethodHandles.insertArguments(BIND_METHOD, 1, name);
+            }
+        }
+        throw missing(type, statics);
+    }
+
+    private MethodHandle constructor(Class<?> type, Class<?>[] arguments) {
+        Executable best = choose(List.of(type.getConstructors()), arguments);
+        if (best == null) { throw mismatch("Java class " + type.getName(), arguments); }
+        try {
+            MethodHandle handle = PUBLIC.unreflectConstructor((Constructor<?>) best);
+            return adapt(MethodHandles.dropArguments(handle, 0, Object.class), 1, best.getParameterTypes(), arguments);
+        } catch (IllegalAccessException e) {
+            throw new NativeError("Can't access the constructor of Java class " + type.getName() + ".");
+        }
+    }
+
+    private MethodHandle method(Class<?> type, boolean statics, Class<?>[] arguments) {
+        List<Executable> candidates = new ArrayList<>();
+        for (Method method: type.getMethods()) {
+            if (method.getName().equals(name) && Modifier.isStatic(method.getModifiers()) == statics
+                    && visible(method)) {
+                candidates.add(method);
+            }
+        }
+        if (candidates.isEmpty()) { throw missing(type, statics); }
+        Executable best = choose(candidates, arguments);
+        if (best == null) { throw mismatch("Java method '" + name + "'", arguments); }
+
+        Method method = (Method) best;
+        MethodHandle handle = unreflect(method, type);
+        if (statics) { handle = MethodHandles.dropArguments(handle, 0, Object.class); }
+        return adapt(handle, 1, method.getParameterTypes(), arguments);
+    }
+
+    // Object's own methods stay hidden, apart from the three every value has.
+    private static boolean visible(Method method) {
+        if (method.getDeclaringClass() != Object.class) { return true; }
+        String name = method.getName();
+        return name.equals("toString") || name.equals("equals") || name.equals("hashCode");
+    }
+
+    // A public method of a class that isn't public is reached through a public type declaring it.
+    private static MethodHandle unreflect(Method method, Class<?> type) {
+        try {
+            return PUBLIC.unreflect(method);
+        } catch (IllegalAccessException e) {
+            MethodType signature = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+            for (Class<?> owner = type; owner != null; owner = owner.getSuperclass()) {
+                List<Class<?>> types = new ArrayList<>(List.of(owner.getInterfaces()));
+                types.add(0, owner);
+                for (Class<?> candidate: types) {
+                    try {
+                        return PUBLIC.findVirtual(candidate, method.getName(), signature).asType(
+                                signature.insertParameterTypes(0, candidate));
+                    } catch (NoSuchMethodException | IllegalAccessException ignored) {
+                    }
+                }
+            }
+            throw new NativeError("Can't access Java method '" + method.getName() + "'.");
+        }
+    }
+
+    // The applicable overload needing the fewest conversions; the first declared on a tie.
+    private static Executable choose(List<? extends Executable> candidates, Class<?>[] arguments) {
+        Executable best = null;
+        int bestCost = Integer.MAX_VALUE;
+        for (Executable candidate: candidates) {
+            if (candidate.getParameterCount() != arguments.length || candidate.isVarArgs() && arguments.length == 0) {
+                continue;
+            }
+            Class<?>[] parameters = candidate.getParameterTypes();
+            int total = 0;
+            for (int i = 0; i < arguments.length && total >= 0; i++) {
+                int cost = cost(parameters[i], arguments[i]);
+                total = cost < 0 ? -1 : total + cost;
+            }
+            if (total >= 0 && total < bestCost) {
+                best = candidate;
+                bestCost = total;
+            }
+        }
+        return best;
+    }
+
+    // How far a Lox value of class argument is from a Java parameter, or -1 if it can't be passed.
+    // Numbers prefer double, then the narrower types, which are checked for range when called.
+    private static int cost(Class<?> parameter, Class<?> argument) {
+        if (argument == null) { return parameter.isPrimitive() ? -1 : 1; }
+        if (argument == Double.class) {
+            if (parameter == double.class || parameter == Double.class) { return 0; }
+            if (parameter.isAssignableFrom(Double.class)) { return 1; }
+            if (parameter == float.class) { return 2; }
+            if (parameter == long.class) { return 3; }
+            if (parameter == int.class) { return 4; }
+            if (parameter == short.class) { return 5; }
+            if (parameter == byte.class) { return 6; }
+            return -1;
+        }
+        if (argument == String.class || argument == Rope.class) {
+            if (parameter == String.class) { return 0; }
+            if (parameter.isAssignableFrom(String.class)) { return 1; }
+            if (parameter == char.class || parameter == Character.class) { return 2; }
+            return -1;
+        }
+        if (argument == Boolean.class) {
+            if (parameter == boolean.class || parameter == Boolean.class) { return 0; }
+            return parameter.isAssignableFrom(Boolean.class) ? 1 : -1;
+        }
+        if (parameter.isPrimitive()) { return -1; }
+        if (parameter == argument) { return 0; }
+        return parameter.isAssignableFrom(argument) ? 1 : -1;
+    }
+
+    // Puts the converters in front of the parameters and behind the result, then erases the handle
+    // to Objects. The entry's guard has checked the argument classes, so the casts left to asType
+    // can't fail.
+    private static MethodHandle adapt(MethodHandle handle, int offset, Class<?>[] parameters, Class<?>[] arguments) {
+        for (int i = 0; i < parameters.length; i++) {
+            MethodHandle converter = argumentConverter(parameters[i], arguments[i]);
+            if (converter != null) {
+                handle = MethodHandles.filterArguments(handle, offset + i,
+                        converter.asType(MethodType.methodType(parameters[i], Object.class)));
+            }
+        }
+        handle = adaptResult(handle);
+        handle = handle.asType(MethodType.genericMethodType(offset + parameters.length));
+        if (parameters.length > MAX_EXACT) {
+            handle = handle.asSpreader(Object[].class, parameters.length);
+        }
+        return handle;
+    }
+
+    private static MethodHandle argumentConverter(Class<?> parameter, Class<?> argument) {
+        if (argument == Double.class) {
+            if (parameter == float.class) { return TO_FLOAT; }
+            if (parameter == long.class) { return TO_LONG; }
+            if (parameter == int.class) { return TO_INT; }
+            if (parameter == short.class) { return TO_SHORT; }
+            if (parameter == byte.class) { return TO_BYTE; }
+        } else if (argument == String.class || argument == Rope.class) {
+            if (parameter == char.class || parameter == Character.class) { return TO_CHAR; }
+            if (argument == Rope.class) { return TO_STRING; }
+        }
+        return null;
+    }
+
+    // Every number comes back as a double and every char as a string.
+    private static MethodHandle adaptResult(MethodHandle handle) {
+        Class<?> result = handle.type().returnType();
+        if (result == void.class || result == double.class || result == boolean.class || result == String.class
+                || result == Double.class || result == Boolean.class) {
+            return handle;
+        }
+        if (result == char.class) { return MethodHandles.filterReturnValue(handle, FROM_CHAR); }
+        if (result.isPrimitive()) { return handle.asType(handle.type().changeReturnType(double.class)); }
+        return MethodHandles.filterReturnValue(handle, FROM_JAVA.asType(MethodType.methodType(Object.class, result)));
+    }
+
+    private NativeError missing(Class<?> type, boolean statics) {
+        return new NativeError("Java class " + type.getName() + " has no public" + (statics ? " static" : "")
+                + " member '" + name + "'.");
+    }
+
+    private static NativeError mismatch(String what, Class<?>[] arguments) {
+        StringBuilder types = new StringBuilder();
+        for (Class<?> argument: arguments) {
+            if (types.length() > 0) { types.append(", "); }
+            types.append(typeName(argument));
+        }
+        return new NativeError(what + " can't take (" + types + ").");
+    }
+
+    private static String typeName(Class<?> type) {
+        if (type == null) { return "nil"; }
+        if (type == Double.class) { return "number"; }
+        if (type == String.class || type == Rope.class) { return "string"; }
+        if (type == Boolean.class) { return "bool"; }
+        return type.getName();
+    }
+
+    private static MethodHandle converter(String name, Class<?> result, Class<?>... parameters) {
+        try {
+            return MethodHandles.lookup().findStatic(JavaSite.class, name, MethodType.methodType(result, parameters));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static float toFloat(Object value) {
+        return (float)(double) value;
+    }
+
+    private static long toLong(Object value) {
+        return integer(value, -0x1p63, 0x1p63, "long");
+    }
+
+    private static int toInt(Object value) {
+        return (int) integer(value, Integer.MIN_VALUE, Integer.MAX_VALUE + 1.0, "int");
+    }
+
+    private static short toShort(Object value) {
+        return (short) integer(value, Short.MIN_VALUE, Short.MAX_VALUE + 1.0, "short");
+    }
+
+    private static byte toByte(Object value) {
+        return (byte) integer(value, Byte.MIN_VALUE, Byte.MAX_VALUE + 1.0, "byte");
+    }
+
+    // A whole number in [min, max).
+    private static long integer(Object value, double min, double max, String type) {
+        double number = (double) value;
+        if (number != Math.floor(number) || number < min || number >= max) {
+            throw new NativeError("Can't pass " + Interpreter.stringify(value) + " as a Java " + type + ".");
+        }
+        return (long) number;
+    }
+
+    private static char toChar(Object value) {
+        String string = value.toString();
+        if (string.length() != 1) {
+            throw new NativeError("Can't pass \"" + string + "\" as a Java char.");
+        }
+        return string.charAt(0);
+    }
+
+    private static String toStr(Object value) {
+        return value.toString();
+    }
+
+    private static Object fromChar(char value) {
+        return String.valueOf(value);
+    }
+
+    private static Object fromJava(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) { return ((Number) value).doubleValue(); }
+        if (value instanceof Character) { return value.toString(); }
+        return value;
+    }
+
+    private static Object bind(Object receiver, String name) {
+        return new JavaMethod(receiver, name);
+    }
+}
@@ -0,0 +1,449 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Loop transformations used by the Optimizer once a loop's condition and body are already folded.
+// Inside a function, locals are the names the function itself declares. Any other variable may be
+// a global or a captured one that another task assigns while the loop runs, so it is never read
+// just once. At the top level locals is null: only the main interpreter runs top-level code, and
+// it is the only one that may assign globals.
+class LoopOptimizer {
+
+    // Replaces loop-invariant subexpressions with Invariant nodes, which the interpreter evaluates
+    // once per execution of the loop. Only done when the loop has no calls, so the variables an
+    // invariant reads can only change through assignments we can see.
+    Stmt.While hoist(Stmt.While loop, Set<String> locals) {
+        Scan scan = new Scan();
+        scan.scan(loop.condition);
+        scan.scan(loop.body);
+        if (scan.calls || scan.functions) { return loop; }
+
+        Hoister hoister = new Hoister(scan.variant(), locals, loop.invariants);
+        Expr condition = hoister.hoist(loop.condition);
+        Stmt body = hoister.hoist(loop.body);
+        if (hoister.slots == loop.invariants) { return loop; }
+
+        Stmt.While hoisted = new Stmt.While(condition, body);
+        hoisted.invariants = hoister.slots;
+        return hoisted;
+    }
+
+    // Recognises the shape forStatement desugars into:
+    //   var i = start; while (i < limit) { { body } i = i + step; }
+    // and turns the loop into a CountedLoop that keeps the counter unboxed. The original loop is
+    // kept as a fallback for when the counter or limit turn out not to be numbers.
+    Stmt counted(Stmt.Var declaration, Stmt.While loop, Set<String> locals) {
+        if (!(loop.condition instanceof Expr.Binary) || !(loop.body instanceof Stmt.Block)) { return null; }
+
+        Expr.Binary condition = (Expr.Binary) loop.condition;
+        switch (condition.operator.type) {
+            case TokenType.LESS:
+            case TokenType.LESS_EQUAL:
+            case TokenType.GREATER:
+            case TokenType.GREATER_EQUAL:
+                break;
+            default:
+                return null;
+        }
+        if (!isVariable(condition.left, declaration.name)) { return null; }
+
+        List<Stmt> statements = ((Stmt.Block) loop.body).statements;
+        if (statements.isEmpty()) { return null; }
+        Double step = step(statements.get(statements.size() - 1), declaration.name);
+        if (step == null) { return null; }
+        List<Stmt> body = statements.subList(0, statements.size() - 1);
+
+        Scan scan = new Scan();
+        for (Stmt stmt: body) {
+            scan.scan(stmt);
+        }
+        scan.scan(condition.right);
+        if (scan.functions || scan.variant().contains(declaration.name.lexeme)) { return null; }
+
+        if (!(condition.right instanceof Expr.Literal) && !(condition.right instanceof Expr.Invariant)) {
+            if (scan.calls || !(condition.right instanceof Expr.Variable)) { return null; }
+            String limit = ((Expr.Variable) condition.right).name.lexeme;
+            if (scan.variant().contains(limit) || (locals != null && !locals.contains(limit))) { return null; }
+        }
+
+        return new Stmt.CountedLoop((Expr.Variable) condition.left, condition.operator,
+                condition.right, step, new ArrayList<>(body), loop);
+    }
+
+    private Double step(Stmt stmt, Token counter) {
+        if (!(stmt instanceof Stmt.Expression)) { return null; }
+        Expr expr = ((Stmt.Expression) stmt).expression;
+        if (!(expr instanceof Expr.Assign) || !((Expr.Assign) expr).name.lexeme.equals(counter.lexeme)) { return null; }
+
+        Expr value = ((Expr.Assign) expr).value;
+        if (!(value instanceof Expr.Binary)) { return null; }
+        Expr.Binary binary = (Expr.Binary) value;
+        if (!isVariable(binary.left, counter) || !(binary.right instanceof Expr.Literal)) { return null; }
+        if (!(((Expr.Literal) binary.right).value instanceof Double)) { return null; }
+
+        double amount = (double) ((Expr.Literal) binary.right).value;
+        if (binary.operator.type == TokenType.PLUS) { return amount; }
+        if (binary.operator.type == TokenType.MINUS) { return -amount; }
+        return null;
+    }
+
+    private boolean isVariable(Expr expr, Token name) {
+        return expr instanceof Expr.Variable && ((Expr.Variable) expr).name.lexeme.equals(name.lexeme);
+    }
+
+    // Collects what a loop may change: names it assigns or declares, and whether it makes calls
+    // or declares functions that could do so out of sight.
+    private static class Scan implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        final Set<String> assigned = new HashSet<>();
+        final Set<String> declared = new HashSet<>();
+        boolean calls = false;
+        boolean functions = false;
+
+        Set<String> variant() {
+            Set<String> variant = new HashSet<>(assigned);
+            variant.addAll(declared);
+            return variant;
+        }
+
+        void scan(Expr expr) {
+            expr.accept(this);
+        }
+
+        void scan(Stmt stmt) {
+            stmt.accept(this);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            assigned.add(expr.name.lexeme);
+            scan(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            calls = true;
+            scan(expr.callee);
+            for (Expr argument: expr.arguments) {
+                scan(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            scan(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            scan(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitInlineExpr(Expr.Inline expr) {
+            scan(expr.call);
+            return null;
+        }
+
+        @Override
+        public Void visitInvariantExpr(Expr.Invariant expr) {
+            scan(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitProbeExpr(Expr.Probe expr) {
+            scan(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            calls = true;
+            scan(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement: stmt.statements) {
+                scan(statement);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            scan(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            scan(stmt.condition);
+            scan(stmt.thenBranch);
+            if (stmt.elseBranch != null) { scan(stmt.elseBranch); }
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            scan(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitProbeStmt(Stmt.Probe stmt) {
+            scan(stmt.statement);
+            return null;
+        }
+
+        // The caller runs while the generator is suspended, so this counts as a call.
+        @Override
+        public Void visitYieldStmt(Stmt.Yield stmt) {
+            calls = true;
+            scan(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value != null) { scan(stmt.value); }
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            functions = true;
+            declared.add(stmt.name.lexeme);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            declared.add(stmt.name.lexeme);
+            if (stmt.Initializer != null) { scan(stmt.Initializer); }
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            scan(stmt.condition);
+            scan(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitCountedLoopStmt(Stmt.CountedLoop stmt) {
+            scan(stmt.loop);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            functions = true;
+            declared.add(stmt.name.lexeme);
+            return null;
+        }
+    }
+
+    // Rewrites a loop's condition and body, wrapping maximal invariant subexpressions. Nested loops
+    // are left alone since they set up their own invariant slots when they run.
+    private static class Hoister implements Stmt.Visitor<Stmt> {
+        private final Set<String> variant;
+        private final Set<String> locals;
+        int slots;
+
+        Hoister(Set<String> variant, Set<String> locals, int slots) {
+            this.variant = variant;
+            this.locals = locals;
+            this.slots = slots;
+        }
+
+        Stmt hoist(Stmt stmt) {
+            return stmt.accept(this);
+        }
+
+        Expr hoist(Expr expr) {
+            if (expr instanceof Expr.Binary || expr instanceof Expr.Logical || expr instanceof Expr.Unary) {
+                if (isInvariant(expr) && readsVariable(expr)) {
+                    return new Expr.Invariant(expr, slots++);
+                }
+            }
+
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                Expr left = hoist(binary.left);
+                Expr right = hoist(binary.right);
+                if (left == binary.left && right == binary.right) { return expr; }
+                return new Expr.Binary(left, binary.operator, right);
+            }
+            if (expr instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical) expr;
+                Expr left = hoist(logical.left);
+                Expr right = hoist(logical.right);
+                if (left == logical.left && right == logical.right) { return expr; }
+                return new Expr.Logical(left, logical.operator, right);
+            }
+            if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                Expr right = hoist(unary.right);
+                if (right == unary.right) { return expr; }
+                return new Expr.Unary(unary.operator, right);
+            }
+            if (expr instanceof Expr.Assign) {
+                Expr.Assign assign = (Expr.Assign) expr;
+                Expr value = hoist(assign.value);
+                if (value == assign.value) { return expr; }
+                return new Expr.Assign(assign.name, value);
+            }
+            return expr;
+        }
+
+        private boolean isInvariant(Expr expr) {
+            if (expr instanceof Expr.Literal) { return true; }
+            if (expr instanceof Expr.Variable) {
+                String name = ((Expr.Variable) expr).name.lexeme;
+                return !variant.contains(name) && (locals == null || locals.contains(name));
+            }
+            if (expr instanceof Expr.Grouping) { return isInvariant(((Expr.Grouping) expr).expression); }
+            if (expr instanceof Expr.Unary) { return isInvariant(((Expr.Unary) expr).right); }
+            if (expr instanceof Expr.Binary) {
+                return isInvariant(((Expr.Binary) expr).left) && isInvariant(((Expr.Binary) expr).right);
+            }
+            if (expr instanceof Expr.Logical) {
+                return isInvariant(((Expr.Logical) expr).left) && isInvariant(((Expr.Logical) expr).right);
+            }
+            return false;
+        }
+
+        private boolean readsVariable(Expr expr) {
+            if (expr instanceof Expr.Variable) { return true; }
+            if (expr instanceof Expr.Grouping) { return readsVariable(((Expr.Grouping) expr).expression); }
+            if (expr instanceof Expr.Unary) { return readsVariable(((Expr.Unary) expr).right); }
+            if (expr instanceof Expr.Binary) {
+                return readsVariable(((Expr.Binary) expr).left) || readsVariable(((Expr.Binary) expr).right);
+            }
+            if (expr instanceof Expr.Logical) {
+                return readsVariable(((Expr.Logical) expr).left) || readsVariable(((Expr.Logical) expr).right);
+            }
+            return false;
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt) {
+            List<Stmt> statements = new ArrayList<>();
+            boolean changed = false;
+            for (Stmt statement: stmt.statements) {
+                Stmt hoisted = hoist(statement);
+                changed |= hoisted != statement;
+                statements.add(hoisted);
+            }
+            return changed ? new Stmt.Block(statements) : stmt;
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+            Expr expression = hoist(stmt.expression);
+            return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt) {
+            Expr condition = hoist(stmt.condition);
+            Stmt thenBranch = hoist(stmt.thenBranch);
+            Stmt elseBranch = stmt.elseBranch == null ? null : hoist(stmt.elseBranch);
+            if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+                return stmt;
+            }
+            return new Stmt.If(condition, thenBranch, elseBranch);
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt) {
+            Expr expression = hoist(stmt.expression);
+            return expression == stmt.expression ? stmt : new Stmt.Print(stmt.keyword, expression);
+        }
+
+        @Override
+        public Stmt visitProbeStmt(Stmt.Probe stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitYieldStmt(Stmt.Yield stmt) {
+            Expr value = hoist(stmt.value);
+            return value == stmt.value ? stmt : new Stmt.Yield(stmt.keyword, value);
+        }
+
+        @Override
+        public Stmt visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value == null) { return stmt; }
+            Expr value = hoist(stmt.value);
+            return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+        }
+
+        @Override
+        public Stmt visitClassStmt(Stmt.Class stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt) {
+            if (stmt.Initializer == null) { return stmt; }
+            Expr initializer = hoist(stmt.Initializer);
+            return initializer == stmt.Initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitCountedLoopStmt(Stmt.CountedLoop stmt) {
+            return stmt;
+        }
+
+        @Override
+        public Stmt visitFunctionStmt(Stmt.Function stmt) {
+            return stmt;
+        }
+    }
+}
@@ -4,23 +4,48 @@ import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import javax.script.ScriptException;
 
 class Lox {
-    private static final Interpreter interpreter = new Interpreter();
+    // Only made by main, so a host embedding LoxScriptEngine doesn't get a second interpreter.
+    private static Interpreter interpreter;
+    private static Optimizer optimizer;
+    private static Profiler profiler;
+    private static boolean metrics = false;
+    private static long profileInterval = 10000;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
+    // Set by LoxScriptEngine while it compiles, so errors go back to the host instead of the terminal.
+    static final ThreadLocal<List<ScriptException>> compileErrors = new ThreadLocal<>();
 
     public static void main(String []args) {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox {script]");
-            System.exit(64);
-        } else if (args.length == 1) {
+        interpreter = new Interpreter();
+        optimizer = new Optimizer(interpreter.strings);
+        String script = null;
+        for (String arg: args) {
+            if (arg.startsWith("--")) {
+                if (!option(arg)) { usage(); }
+            } else if (script == null) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+
+        if (metrics) { Metrics.register(); }
+        if (profiler != null) {
+            interpreter.profile = profiler.stack("<script>", Thread.currentThread());
+            profiler.start(profileInterval * 1000);
+        }
+
+        if (script != null) {
             {
                 try {
-                    runFile(args[0]);
+                    runFile(script);
                 } catch (IOException e) {
-                    System.out.println("Unable to read file " + args[0]);
+                    System.out.println("Unable to read file " + script);
                     e.printStackTrace();
                 }
             }
@@ -34,9 +59,109 @@ class Lox {
         }
     }
 
+    private static boolean option(String arg) {
+        switch (arg) {
+            case "--intern-strings":
+                interpreter.strings.internDynamic = true;
+                return true;
+            case "--log-tiers":
+                interpreter.tiering.log = true;
+                return true;
+            case "--hot-report":
+                interpreter.hotspots = new Hotspots(10);
+                return true;
+            case "--metrics":
+                metrics = true;
+                return true;
+            case "--memo-stats":
+                interpreter.memos = new ArrayList<>();
+                return true;
+        }
+        if (arg.startsWith("--tier-threshold=")) {
+            try {
+                interpreter.tiering.threshold = Integer.parseInt(arg.substring("--tier-threshold=".length()));
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (arg.startsWith("--output-buffer=")) {
+            try {
+                int capacity = Integer.parseInt(arg.substring("--output-buffer=".length()));
+                if (capacity <= 0) { return false; }
+                interpreter.out.resize(capacity);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (arg.startsWith("--java=")) {
+            for (String name: arg.substring("--java=".length()).split(",")) {
+                if (name.isEmpty()) { return false; }
+                interpreter.interop.allow(name);
+            }
+            return true;
+        }
+        if (arg.startsWith("--no-opt=")) {
+            for (String pass: arg.substring("--no-opt=".length()).split(",")) {
+                if (!optimizer.disable(pass)) { return false; }
+            }
+            return true;
+        }
+        if (arg.startsWith("--hot-report=")) {
+            try {
+                int limit = Integer.parseInt(arg.substring("--hot-report=".length()));
+                if (limit <= 0) { return false; }
+                interpreter.hotspots = new Hotspots(limit);
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (arg.startsWith("--profile=")) {
+            String path = arg.substring("--profile=".length());
+            if (path.isEmpty()) { return false; }
+            profiler = new Profiler(Paths.get(path));
+            return true;
+        }
+        if (arg.startsWith("--profile-interval=")) {
+            try {
+                profileInterval = Long.parseLong(arg.substring("--profile-interval=".length()));
+                return profileInterval > 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (arg.startsWith("--memo-size=")) {
+            try {
+                interpreter.memoCapacity = Integer.parseInt(arg.substring("--memo-size=".length()));
+                return interpreter.memoCapacity > 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--intern-strings] [--tier-threshold=n] [--log-tiers]"
+                + " [--memo-size=n] [--memo-stats] [--output-buffer=n] [--java=class,...] [--no-opt=types,loops,slots]"
+                + " [--hot-report[=n]] [--metrics]"
+                + " [--profile=file [--profile-interval=us]] [script]");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException{
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        try {
+            run(new String(bytes, Charset.defaultCharset()));
+        } finally {
+            interpreter.out.flush();
+        }
+        reportMemos();
+        if (interpreter.hotspots != null) { interpreter.hotspots.report(System.err); }
+        if (profiler != null) { profiler.stop(); }
+        if (metrics) { Metrics.INSTANCE.report(System.err); }
 
         if (hadError) { System.exit(65); }
         if (hadRuntimeError) { System.exit(70); }
@@ -47,36 +172,94 @@ class Lox {
         BufferedReader reader = new BufferedReader(input);
 
         for (;;) {
+            interpreter.out.flush();
             System.out.print(">>> ");
             String line = reader.readLine();
             if (line == null) break;
             run(line);
             hadError = false;
         }
+        interpreter.out.flush();
+        reportMemos();
+        if (interpreter.hotspots != null) { interpreter.hotspots.report(System.err); }
+        if (profiler != null) { profiler.stop(); }
+        if (metrics) { Metrics.INSTANCE.report(System.err); }
     }
 
     private static void run(String line) {
-        Scanner scanner = new Scanner(line);
+        List<Stmt> statements = compile(line, interpreter, optimizer);
+        if (statements == null) return;
+
+        LoxEvents.Phase phase = LoxEvents.Phase.start("execute");
+        interpreter.interpret(statements);
+        phase.finish();
+    }
+
+    // Everything up to running the code, or null if there were errors. The statements stay valid
+    // for as long as the interpreter they were resolved against, so they can be run repeatedly.
+    static List<Stmt> compile(String source, Interpreter interpreter, Optimizer optimizer) {
+        LoxEvents.Phase phase = LoxEvents.Phase.start("scan");
+        Scanner scanner = new Scanner(source, interpreter.strings);
         List<Token> tokens = scanner.scanTokens();
+        phase.finish();
 
+        phase = LoxEvents.Phase.start("parse");
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
+        phase.finish();
+        if (failed()) return null;
+
+        phase = LoxEvents.Phase.start("optimize");
+        List<Stmt> parsed = statements;
+        statements = optimizer.optimize(statements);
+        if (interpreter.hotspots != null) { statements = interpreter.hotspots.instrument(statements); }
+        phase.finish();
 
+        phase = LoxEvents.Phase.start("resolve");
+        // Code the optimizer dropped has to be valid all the same, so it is checked as parsed first.
+        if (optimizer.pruned) { resolver(interpreter, optimizer).resolve(parsed); }
+        if (!failed()) { resolver(interpreter, optimizer).resolve(statements); }
+        if (!failed() && optimizer.inferTypes) { new TypeInferrer().infer(statements); }
+        phase.finish();
+        if (failed()) return null;
+
+        return statements;
+    }
+
+    private static Resolver resolver(Interpreter interpreter, Optimizer optimizer) {
         Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        if (hadError) return;
+        resolver.frameSlots = optimizer.frameSlots;
+        return resolver;
+    }
 
-        interpreter.interpret(statements);
+    private static boolean failed() {
+        List<ScriptException> errors = compileErrors.get();
+        return errors == null ? hadError : !errors.isEmpty();
+    }
+
+    private static void reportMemos() {
+        if (interpreter.memos == null) { return; }
+        for (Memo memo: interpreter.memos) {
+            System.err.println("[memo] " + memo.name + ": " + memo.hits + " hits, " + memo.misses
+                    + " misses, " + memo.size() + " entries");
+        }
     }
 
     public static void error(int line, String message) {
         report(line, "", message);
-        hadError = true;
     }
 
+    // Anything printed before the error has to reach the terminal first.
     private static void report(int line, String where, String message) {
+        List<ScriptException> errors = compileErrors.get();
+        if (errors != null) {
+            errors.add(new ScriptException(("Error" + where).trim() + ": " + message, null, line));
+            return;
+        }
+        if (interpreter != null) { interpreter.out.flush(); }
         System.out.println("Error in line " + line + " (" + where + ") :");
         System.out.println(message);
+        hadError = true;
     }
 
     public static void report(Token token, String message) {
@@ -87,7 +270,9 @@ class Lox {
         }
     }
 
-    public static void runtimeError(RuntimeError err) {
+    // Flushes the output of the interpreter that raised it, which need not be the one main made.
+    public static void runtimeError(Interpreter interpreter, RuntimeError err) {
+        interpreter.out.flush();
         System.out.println("line [" + err.token.line + "]: ");
         System.err.println(err.getMessage());
         hadRuntimeError = true;
@@ -3,6 +3,13 @@ package org.example.lox;
 import java.util.List;
 
 interface LoxCallable {
+    // Negative when any number of arguments may be passed, as for Java methods, whose overload is
+    // picked by the arguments.
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // Whether pure functions may call it.
+    default boolean pure() {
+        return false;
+    }
 }
@@ -0,0 +1,83 @@
+package org.example.lox;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A bounded queue between tasks. send waits while it is full and receive while it is empty; after
+// close, send is an error and receive drains what is left, then returns nil. The lock is a
+// ReentrantLock rather than synchronized so a virtual thread waiting here gives up its carrier.
+// Whoever is about to wait flushes its output first, so nothing printed sits in a buffer while
+// its task is blocked.
+class LoxChannel {
+    private final Object[] items;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    LoxChannel(int capacity) {
+        this.items = new Object[capacity];
+    }
+
+    void send(Interpreter interpreter, Object value) {
+        lock.lock();
+        try {
+            while (count == items.length && !closed) {
+                interpreter.out.flush();
+                notFull.await();
+            }
+            if (closed) { throw new NativeError("Can't send on a closed channel."); }
+            items[(head + count) % items.length] = value;
+            count++;
+            notEmpty.signal();
+        } catch (InterruptedException e) {
+            throw interrupted();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive(Interpreter interpreter) {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                interpreter.out.flush();
+                notEmpty.await();
+            }
+            if (count == 0) { return null; }
+            Object value = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            count--;
+            notFull.signal();
+            return value;
+        } catch (InterruptedException e) {
+            throw interrupted();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static NativeError interrupted() {
+        Thread.currentThread().interrupt();
+        return new NativeError("Interrupted while waiting on a channel.");
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
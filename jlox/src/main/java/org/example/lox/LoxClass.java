@@ -23,6 +23,12 @@ public class LoxClass implements LoxCallable{
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
+        Metrics.INSTANCES.increment();
+        LoxEvents.Allocation event = new LoxEvents.Allocation();
+        if (event.shouldCommit()) {
+            event.className = name;
+            event.commit();
+        }
         return instance;
     }
 }
@@ -0,0 +1,78 @@
+package org.example.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight Recorder events, shown under "Lox" next to the JVM's own. While no recording has them
+// enabled, an event is a check of a flag on an object the JIT never allocates. The thresholds are
+// defaults a recording's settings can change, e.g. lox.FunctionCall#threshold=1 ms. Java stack
+// traces are left out, since they show the tree-walker rather than the script.
+final class LoxEvents {
+    private LoxEvents() {
+    }
+
+    @Name("lox.FunctionCall")
+    @Label("Lox Function Call")
+    @Description("A call of a Lox function that took longer than the threshold")
+    @Category("Lox")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class Call extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Declared At Line")
+        int line;
+    }
+
+    @Name("lox.InstanceAllocation")
+    @Label("Lox Instance Allocation")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class Allocation extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class Failure extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.Phase")
+    @Label("Lox Phase")
+    @Description("Scanning, parsing, optimizing, resolving or running a script")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class Phase extends Event {
+        @Label("Phase")
+        String phase;
+        // For Metrics, which times phases whether or not a recording is on.
+        private transient long started;
+
+        static Phase start(String name) {
+            Phase event = new Phase();
+            event.phase = name;
+            event.started = System.nanoTime();
+            event.begin();
+            return event;
+        }
+
+        void finish() {
+            Metrics.phase(phase, System.nanoTime() - started);
+            commit();
+        }
+    }
+}
@@ -3,8 +3,15 @@ package org.example.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable{
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
     private final Environment closure;
+    // Profile for tiering: how often this closure was called, and how many loop iterations its
+    // body ran in the tree-walker. Tasks and workers running the closure bump them without any
+    // synchronization, so increments can be lost. That only delays promotion a little, which is
+    // cheaper than making every call contend on them.
+    int calls = 0;
+    int backEdges = 0;
+    private Memo memo;
 
     LoxFunction(Stmt.Function declaration, Environment closure) {
         this.closure = closure;
@@ -18,20 +25,70 @@ class LoxFunction implements LoxCallable{
 
     @Override
     public int arity() {
-        return 0;
+        return declaration.params.size();
     }
 
+    @Override
+    public boolean pure() {
+        return declaration.pure;
+    }
+
+    // Timed for the lox.FunctionCall event only while a recording has it enabled.
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        Metrics.CALLS.increment();
+        LoxEvents.Call event = new LoxEvents.Call();
+        if (!event.isEnabled()) { return dispatch(interpreter, arguments); }
+        event.begin();
+        try {
+            return dispatch(interpreter, arguments);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.function = declaration.name.lexeme;
+                event.line = declaration.name.line;
+                event.commit();
+            }
+        }
+    }
+
+    private Object dispatch(Interpreter interpreter, List<Object> arguments) {
+        if (declaration.generator) { return new LoxGenerator(this, interpreter, arguments); }
+        if (!declaration.pure) { return invoke(interpreter, arguments); }
+
+        List<Object> key = Memo.key(arguments);
+        if (key == null) { return invoke(interpreter, arguments); }
+        if (memo == null) { memo = interpreter.memo(declaration.name.lexeme); }
+
+        long generation = Memo.generation();
+        Object result = memo.get(key, generation);
+        if (result == Memo.MISSING) {
+            result = invoke(interpreter, arguments);
+            memo.put(key, result, generation);
+        }
+        return result;
+    }
+
+    // Runs the body, which for a generator happens on its own thread, see LoxGenerator.
+    Object invoke(Interpreter interpreter, List<Object> arguments) {
+        if (declaration.compiled == null && ++calls + backEdges >= interpreter.tiering.threshold) {
+            interpreter.tiering.promote(this);
+        }
+
+        Object[] frame = new Object[declaration.frameSize];
+        Environment environment = declaration.captures ? new Environment(closure, interpreter) : closure;
         for (int i=0; i<declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            int slot = declaration.paramSlots[i];
+            if (slot >= 0) {
+                frame[slot] = arguments.get(i);
+            } else {
+                environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            }
         }
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            return interpreter.executeBody(this, environment, frame);
         } catch (Return returnValue) {
             return returnValue.value;
         }
-        return null;
     }
 }
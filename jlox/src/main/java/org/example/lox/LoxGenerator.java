@@ -0,0 +1,134 @@
+package org.example.lox;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+// What calling a function that yields returns. The body runs on a virtual thread of its own, which
+// keeps the tree-walker's recursion on that thread's stack while it is suspended, but only ever
+// while the caller waits: hasNext and next hand control to it, yield hands it back. Nothing runs
+// until the first hasNext or next. The thread only holds the State, not the generator, so once a
+// generator left unfinished is unreachable a Cleaner cancels it: the yield it is parked in throws,
+// and the body unwinds and ends.
+class LoxGenerator {
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    // The interpreter that made it; tasks and parallel workers can't resume one they didn't make.
+    final Interpreter owner;
+    private final State state;
+
+    LoxGenerator(LoxFunction function, Interpreter interpreter, List<Object> arguments) {
+        this.owner = interpreter;
+        this.state = new State(function, interpreter, arguments);
+        CLEANER.register(this, state::cancel);
+    }
+
+    // Thrown out of yield in a cancelled generator.
+    private static final class Cancelled extends RuntimeException {
+        Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final class State {
+        private final Thread thread;
+        private boolean started = false;
+        private Thread caller;
+        // Whose turn it is. Everything below is written before it changes hands, and read after.
+        private volatile boolean running = false;
+        private volatile boolean cancelled = false;
+        private boolean buffered = false;
+        private boolean finished = false;
+        private Object value;
+        private Throwable error;
+
+        private State(LoxFunction function, Interpreter interpreter, List<Object> arguments) {
+            Interpreter coroutine = interpreter.coroutine(this);
+            this.thread = Thread.ofVirtual().unstarted(() -> run(function, coroutine, arguments));
+        }
+
+        // Whatever the body stops with, the caller gets control back. Anything it threw is raised
+        // again on the caller's thread by hasNext.
+        private void run(LoxFunction function, Interpreter coroutine, List<Object> arguments) {
+            try {
+                function.invoke(coroutine, arguments);
+            } catch (Cancelled e) {
+                // Nobody is waiting for it.
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                finished = true;
+                running = false;
+                LockSupport.unpark(caller);
+            }
+        }
+
+        // Called on the generator's thread by yield.
+        void suspend(Object value) {
+            this.value = value;
+            buffered = true;
+            running = false;
+            LockSupport.unpark(caller);
+            while (!running) {
+                if (cancelled) { throw new Cancelled(); }
+                LockSupport.park(this);
+            }
+        }
+
+        // Run by the Cleaner. Unparking a thread that never started does nothing.
+        private void cancel() {
+            cancelled = true;
+            LockSupport.unpark(thread);
+        }
+
+        private void resume() {
+            if (running) { throw new NativeError("A generator can't resume itself."); }
+            caller = Thread.currentThread();
+            running = true;
+            if (started) {
+                LockSupport.unpark(thread);
+            } else {
+                started = true;
+                thread.start();
+            }
+            while (running) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    // Runs the body on to its next yield, unless a value is already waiting. An error it stopped
+    // with is raised here, so it is reported with the line it happened on.
+    boolean hasNext() {
+        if (!state.buffered && !state.finished) {
+            try {
+                state.resume();
+            } finally {
+                // Otherwise the generator could be cleaned, and cancelled, while its body runs.
+                Reference.reachabilityFence(this);
+            }
+        }
+        if (state.error != null) {
+            Throwable failure = state.error;
+            state.error = null;
+            if (failure instanceof RuntimeException) { throw (RuntimeException) failure; }
+            if (failure instanceof Error) { throw (Error) failure; }
+            throw new IllegalStateException(failure);
+        }
+        return state.buffered;
+    }
+
+    Object next() {
+        if (!hasNext()) { throw new NativeError("The generator has no more values."); }
+        Object result = state.value;
+        state.buffered = false;
+        state.value = null;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "<generator>";
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+// The list type behind the list natives. While every element is a number they are stored unboxed
+// in a double[]; the first non-number moves the list to an Object[] for good.
+class LoxList {
+    private static final int INITIAL_CAPACITY = 8;
+    private static final VarHandle ELEMENTS;
+    private static final VarHandle SIZE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            ELEMENTS = lookup.findVarHandle(LoxList.class, "elements", Object.class);
+            SIZE = lookup.findVarHandle(LoxList.class, "size", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // A double[] while every element is a number, an Object[] after. Only the owner writes, but a
+    // task may read while it does: a grown or generalized array is filled before it is released,
+    // and an element before the size that covers it, so a reader that acquires the size and then
+    // the array never sees one shorter than the size or a slot not yet written.
+    private Object elements = new double[INITIAL_CAPACITY];
+    private int size = 0;
+    // The interpreter that made it. Inside parallelMap a worker may only change lists it made.
+    final Interpreter owner;
+
+    LoxList(Interpreter owner) {
+        this.owner = owner;
+    }
+
+    int size() {
+        return (int) SIZE.getAcquire(this);
+    }
+
+    Object get(int index) {
+        checkIndex(index, (int) SIZE.getAcquire(this));
+        Object elements = ELEMENTS.getAcquire(this);
+        return elements instanceof double[] ? (Object)((double[]) elements)[index] : ((Object[]) elements)[index];
+    }
+
+    void set(int index, Object value) {
+        checkIndex(index, size);
+        if (elements instanceof double[]) {
+            if (value instanceof Double) {
+                ((double[]) elements)[index] = (double)value;
+                return;
+            }
+            generalize();
+        }
+        ((Object[]) elements)[index] = value;
+    }
+
+    void append(Object value) {
+        if (elements instanceof double[] && !(value instanceof Double)) { generalize(); }
+        if (elements instanceof double[]) {
+            double[] numbers = (double[]) elements;
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+                ELEMENTS.setRelease(this, numbers);
+            }
+            numbers[size] = (double)value;
+        } else {
+            Object[] values = (Object[]) elements;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                ELEMENTS.setRelease(this, values);
+            }
+            values[size] = value;
+        }
+        SIZE.setRelease(this, size + 1);
+    }
+
+    private void generalize() {
+        double[] numbers = (double[]) elements;
+        Object[] values = new Object[Math.max(numbers.length, INITIAL_CAPACITY)];
+        for (int i = 0; i < size; i++) {
+            values[i] = numbers[i];
+        }
+        ELEMENTS.setRelease(this, values);
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new NativeError("Index " + index + " is out of bounds for a list of length " + size + ".");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) { builder.append(", "); }
+            builder.append(Interpreter.stringify(get(i)));
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -0,0 +1,212 @@
+package org.example.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+// The map type behind the map natives, laid out like clox's table: one flat array per field,
+// open addressing with linear probing, and deleted entries left as tombstones so probe sequences
+// stay intact. Each slot keeps its key's hash, so a probe only calls equals on a likely match.
+// Walking the slots with nextSlot/keyAt/valueAt needs no iterator or entry objects.
+class LoxMap {
+    private static final Object TOMBSTONE = new Object();
+    private static final int INITIAL_CAPACITY = 8;
+    private static final VarHandle TABLE;
+    private static final VarHandle KEY = MethodHandles.arrayElementVarHandle(Object[].class);
+    // Slot numbers as Lox numbers, shared by every map and grown to the largest table walked, so
+    // nextSlot hands out the same boxes each time instead of a new one per step.
+    private static volatile Double[] slotNumbers = new Double[0];
+
+    static {
+        try {
+            TABLE = MethodHandles.lookup().findVarHandle(LoxMap.class, "table", Table.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Only the owner writes, but a task may read while it does. Resizing fills a new table before
+    // releasing it, and a new entry's key is released after its hash and value, so a reader that
+    // acquires the table and then a key sees the entry whole or not at all.
+    private static final class Table {
+        // A null key marks an empty slot, which is why nil can't be used as a key.
+        final Object[] keys;
+        final Object[] values;
+        final int[] hashes;
+
+        Table(int capacity) {
+            keys = new Object[capacity];
+            values = new Object[capacity];
+            hashes = new int[capacity];
+        }
+    }
+
+    private Table table = new Table(INITIAL_CAPACITY);
+    // Live entries plus tombstones, which is what the load factor has to account for.
+    private int count = 0;
+    private int size = 0;
+    // The interpreter that made it. Inside parallelMap a worker may only change maps it made.
+    final Interpreter owner;
+
+    LoxMap(Interpreter owner) {
+        this.owner = owner;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key) {
+        Table table = table();
+        int slot = find(table, key, hash(key));
+        return isEntry(table, slot) ? table.values[slot] : null;
+    }
+
+    boolean has(Object key) {
+        Table table = table();
+        return isEntry(table, find(table, key, hash(key)));
+    }
+
+    void put(Object key, Object value) {
+        if (key == null) { throw new NativeError("Map keys can't be nil."); }
+        // Flattened once here rather than on every comparison against it.
+        if (key instanceof Rope) { key = key.toString(); }
+
+        if (count + 1 > table.keys.length * 3 / 4) { resize(table.keys.length * 2); }
+
+        int hash = hash(key);
+        int slot = find(table, key, hash);
+        if (!isEntry(table, slot)) {
+            if (table.keys[slot] == null) { count++; }
+            size++;
+            table.values[slot] = value;
+            table.hashes[slot] = hash;
+            KEY.setRelease(table.keys, slot, key);
+            return;
+        }
+        table.values[slot] = value;
+    }
+
+    boolean remove(Object key) {
+        int slot = find(table, key, hash(key));
+        if (!isEntry(table, slot)) { return false; }
+        KEY.setRelease(table.keys, slot, TOMBSTONE);
+        table.values[slot] = null;
+        size--;
+        return true;
+    }
+
+    // The first slot at or after the given one holding an entry, or -1.
+    int nextSlot(int slot) {
+        Table table = table();
+        for (int i = Math.max(slot, 0); i < table.keys.length; i++) {
+            if (isEntry(table, i)) { return i; }
+        }
+        return -1;
+    }
+
+    // nextSlot for scripts: the slot as a number, or nil at the end.
+    Object nextSlotNumber(int slot) {
+        int next = nextSlot(slot);
+        if (next < 0) { return null; }
+        Double[] numbers = slotNumbers;
+        if (next >= numbers.length) { numbers = growSlotNumbers(table().keys.length); }
+        return numbers[next];
+    }
+
+    // Filled before it is published, so a reader never sees a missing box. Two threads growing at
+    // once just make the same numbers twice.
+    private static Double[] growSlotNumbers(int capacity) {
+        Double[] numbers = slotNumbers;
+        if (capacity <= numbers.length) { return numbers; }
+        Double[] grown = Arrays.copyOf(numbers, capacity);
+        for (int i = numbers.length; i < capacity; i++) {
+            grown[i] = (double) i;
+        }
+        slotNumbers = grown;
+        return grown;
+    }
+
+    Object keyAt(int slot) {
+        Table table = table();
+        checkSlot(table, slot);
+        return table.keys[slot];
+    }
+
+    Object valueAt(int slot) {
+        Table table = table();
+        checkSlot(table, slot);
+        return table.values[slot];
+    }
+
+    private Table table() {
+        return (Table) TABLE.getAcquire(this);
+    }
+
+    private static void checkSlot(Table table, int slot) {
+        if (slot < 0 || slot >= table.keys.length || !isEntry(table, slot)) {
+            throw new NativeError("No entry in slot " + slot + ".");
+        }
+    }
+
+    private static boolean isEntry(Table table, int slot) {
+        Object key = KEY.getAcquire(table.keys, slot);
+        return key != null && key != TOMBSTONE;
+    }
+
+    private static int hash(Object key) {
+        int hash = key == null ? 0 : key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    // The slot holding the key, or else where it should go: the first tombstone passed, if any,
+    // otherwise the empty slot that ended the probe.
+    private static int find(Table table, Object key, int hash) {
+        int mask = table.keys.length - 1;
+        int slot = hash & mask;
+        int tombstone = -1;
+        while (true) {
+            Object candidate = KEY.getAcquire(table.keys, slot);
+            if (candidate == null) {
+                return tombstone >= 0 ? tombstone : slot;
+            } else if (candidate == TOMBSTONE) {
+                if (tombstone < 0) { tombstone = slot; }
+            } else if (table.hashes[slot] == hash && Interpreter.isEqual(candidate, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Tombstones are dropped on the way, so count goes back to the number of live entries.
+    private void resize(int capacity) {
+        Table old = table;
+        Table resized = new Table(capacity);
+        count = 0;
+
+        int mask = capacity - 1;
+        for (int i = 0; i < old.keys.length; i++) {
+            Object key = old.keys[i];
+            if (key == null || key == TOMBSTONE) { continue; }
+            int slot = old.hashes[i] & mask;
+            while (resized.keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            resized.keys[slot] = key;
+            resized.values[slot] = old.values[i];
+            resized.hashes[slot] = old.hashes[i];
+            count++;
+        }
+        TABLE.setRelease(this, resized);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+            if (builder.length() > 1) { builder.append(", "); }
+            builder.append(Interpreter.stringify(keyAt(slot))).append(": ").append(Interpreter.stringify(valueAt(slot)));
+        }
+        return builder.append("}").toString();
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.lox;
+
+import java.util.Map;
+
+// What Metrics shows over JMX, as org.example.lox:type=Metrics. Counts are totals for every
+// interpreter in the JVM since it started or since the last reset.
+public interface LoxMetricsMXBean {
+    long getCalls();
+
+    long getInstances();
+
+    long getEnvironments();
+
+    long getInlineCacheHits();
+
+    long getInlineCacheMisses();
+
+    // Hits over lookups at Java call sites, NaN before the first lookup.
+    double getInlineCacheHitRate();
+
+    long getFunctionsPromoted();
+
+    long getLoopsReplaced();
+
+    long getScriptCacheHits();
+
+    long getScriptCacheMisses();
+
+    // Runs per phase, bucketed by duration: bucket 0 is under 1 us, bucket i from 2^(i-1) to 2^i us.
+    Map<String, long[]> getPhaseHistograms();
+
+    Map<String, Double> getPhaseMeanMillis();
+
+    void reset();
+}
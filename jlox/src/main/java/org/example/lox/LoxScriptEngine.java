@@ -0,0 +1,317 @@
+package org.example.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+// jlox for a JVM host, through javax.script. Each engine has its own interpreter, whose globals
+// are the engine's ENGINE_SCOPE bindings, and print goes to the context's writer. Not thread-safe:
+// like the interpreter it wraps, an engine runs one script at a time.
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+    private static final int SCRIPT_CACHE_SIZE = 64;
+
+    private final LoxScriptEngineFactory factory;
+    private final Interpreter interpreter;
+    private final Optimizer optimizer;
+    private final GlobalBindings globals;
+    // The context of the script or call running now, where output goes.
+    private ScriptContext running;
+    // What eval has compiled, by source, least recently used dropped first.
+    private final Map<String, Script> scripts = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Script> eldest) {
+            return size() > SCRIPT_CACHE_SIZE;
+        }
+    };
+
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+        this.interpreter = new Interpreter(new OutputBuffer(new ContextWriter()));
+        this.optimizer = new Optimizer(interpreter.strings);
+        this.globals = new GlobalBindings(interpreter.globals);
+        context.setBindings(globals, ScriptContext.ENGINE_SCOPE);
+        Metrics.register();
+    }
+
+    public LoxScriptEngine() {
+        this(new LoxScriptEngineFactory());
+    }
+
+    // Lets scripts use a Java class through javaClass, and the members of objects of that type the
+    // host passes in.
+    public void allow(String className) {
+        interpreter.interop.allow(className);
+    }
+
+    public void allow(Class<?> type) {
+        allow(type.getName());
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    // Bindings other than the engine's own are copied into the globals before each run.
+    @Override
+    public Bindings createBindings() {
+        return new javax.script.SimpleBindings();
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return cached(script).eval(context);
+    }
+
+    private Script cached(String source) throws ScriptException {
+        Script script = scripts.get(source);
+        if (script != null) {
+            Metrics.SCRIPT_CACHE_HITS.increment();
+            return script;
+        }
+        Metrics.SCRIPT_CACHE_MISSES.increment();
+        script = script(source);
+        scripts.put(source, script);
+        return script;
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    // Scanned, parsed, optimized and resolved once; eval only runs it.
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return script(script);
+    }
+
+    private Script script(String script) throws ScriptException {
+        List<ScriptException> errors = new ArrayList<>();
+        List<Stmt> statements;
+        Lox.compileErrors.set(errors);
+        try {
+            statements = Lox.compile(script, interpreter, optimizer);
+        } finally {
+            Lox.compileErrors.remove();
+        }
+        if (!errors.isEmpty()) { throw errors.get(0); }
+
+        // A cached script may have inlined a function it calls. Declaring a global can change what
+        // the Optimizer inlines, so it throws away what eval compiled before.
+        for (Stmt stmt: statements) {
+            if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Var || stmt instanceof Stmt.Class) {
+                scripts.clear();
+                break;
+            }
+        }
+        return new Script(statements);
+    }
+
+    @Override
+    public CompiledScript compile(Reader reader) throws ScriptException {
+        return compile(read(reader));
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        try {
+            for (int count = reader.read(buffer); count >= 0; count = reader.read(buffer)) {
+                source.append(buffer, 0, count);
+            }
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return source.toString();
+    }
+
+    private final class Script extends CompiledScript {
+        private final List<Stmt> statements;
+
+        Script(List<Stmt> statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return LoxScriptEngine.this;
+        }
+
+        // The value of the last statement when it is an expression, as with other engines.
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            ScriptContext enclosing = running;
+            running = context;
+            LoxEvents.Phase phase = LoxEvents.Phase.start("execute");
+            try {
+                importBindings(context);
+                Object result = null;
+                for (Stmt stmt: statements) {
+                    if (stmt instanceof Stmt.Expression) {
+                        result = interpreter.evaluate(((Stmt.Expression) stmt).expression);
+                    } else {
+                        interpreter.execute(stmt);
+                        result = null;
+                    }
+                }
+                return toJava(result);
+            } catch (RuntimeError error) {
+                throw scriptError(error, context);
+            } finally {
+                interpreter.out.flush();
+                running = enclosing;
+                phase.finish();
+            }
+        }
+    }
+
+    private void importBindings(ScriptContext context) {
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (bindings == null || bindings == globals) { return; }
+        for (Map.Entry<String, Object> entry: bindings.entrySet()) {
+            globals.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // Calls go straight to the function's object, nothing is parsed.
+    @Override
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        GlobalCell cell = interpreter.globals.find(name);
+        Object function = cell == null ? null : cell.get();
+        if (!(function instanceof LoxCallable)) { throw new NoSuchMethodException(name); }
+        return call(name, function, args);
+    }
+
+    // Lox classes have no methods yet, so this calls a function stored in one of the fields.
+    @Override
+    public Object invokeMethod(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException {
+        if (!(thiz instanceof LoxInstance)) { throw new IllegalArgumentException("Not a Lox instance: " + thiz); }
+        Object method;
+        try {
+            method = ((LoxInstance) thiz).get(new Token(TokenType.IDENTIFIER, name, null, 0));
+        } catch (RuntimeError error) {
+            throw new NoSuchMethodException(name);
+        }
+        if (!(method instanceof LoxCallable)) { throw new NoSuchMethodException(name); }
+        return call(name, method, args);
+    }
+
+    private Object call(String name, Object function, Object[] args) throws ScriptException {
+        List<Object> arguments = new ArrayList<>();
+        if (args != null) {
+            for (Object arg: args) {
+                arguments.add(toLox(arg));
+            }
+        }
+
+        ScriptContext enclosing = running;
+        running = context;
+        try {
+            return toJava(interpreter.invoke(new Token(TokenType.IDENTIFIER, name, null, 0), function, arguments));
+        } catch (RuntimeError error) {
+            throw scriptError(error, context);
+        } finally {
+            interpreter.out.flush();
+            running = enclosing;
+        }
+    }
+
+    @Override
+    public <T> T getInterface(Class<T> clasz) {
+        return implement(null, clasz);
+    }
+
+    @Override
+    public <T> T getInterface(Object thiz, Class<T> clasz) {
+        if (!(thiz instanceof LoxInstance)) { throw new IllegalArgumentException("Not a Lox instance: " + thiz); }
+        return implement((LoxInstance) thiz, clasz);
+    }
+
+    // Each method of the interface calls the global function, or the instance's field, of the same
+    // name. Null if any of them is missing.
+    private <T> T implement(LoxInstance thiz, Class<T> clasz) {
+        if (clasz == null || !clasz.isInterface()) { throw new IllegalArgumentException("Not an interface: " + clasz); }
+        for (Method method: clasz.getMethods()) {
+            if (method.isDefault() || Modifier.isStatic(method.getModifiers())) { continue; }
+            if (thiz == null && !(globals.get(method.getName()) instanceof LoxCallable)) { return null; }
+        }
+
+        Object proxy = Proxy.newProxyInstance(clasz.getClassLoader(), new Class<?>[] { clasz }, (self, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals": return self == args[0];
+                    case "hashCode": return System.identityHashCode(self);
+                    default: return "Lox implementation of " + clasz.getName();
+                }
+            }
+            Object result = thiz == null ? invokeFunction(method.getName(), args) : invokeMethod(thiz, method.getName(), args);
+            return toJava(result, method.getReturnType());
+        });
+        return clasz.cast(proxy);
+    }
+
+    private static ScriptException scriptError(RuntimeError error, ScriptContext context) {
+        Object file = context.getAttribute(ScriptEngine.FILENAME);
+        return new ScriptException(error.getMessage(), file == null ? null : file.toString(), error.token.line);
+    }
+
+    // Lox has one number type, and ropes are an implementation detail.
+    static Object toLox(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) { return ((Number) value).doubleValue(); }
+        if (value instanceof Character) { return value.toString(); }
+        return value;
+    }
+
+    static Object toJava(Object value) {
+        return value instanceof Rope ? value.toString() : value;
+    }
+
+    private static Object toJava(Object value, Class<?> type) {
+        if (type == void.class) { return null; }
+        if (value instanceof Double) {
+            double number = (double) value;
+            if (type == int.class || type == Integer.class) { return (int) number; }
+            if (type == long.class || type == Long.class) { return (long) number; }
+            if (type == float.class || type == Float.class) { return (float) number; }
+        }
+        return toJava(value);
+    }
+
+    // Print's writer: whichever the running script's context has now.
+    private final class ContextWriter extends Writer {
+        private Writer target() {
+            return (running != null ? running : context).getWriter();
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            target().write(chars, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
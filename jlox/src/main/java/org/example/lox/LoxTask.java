@@ -0,0 +1,57 @@
+package org.example.lox;
+
+import java.util.Collections;
+
+// A function running concurrently on a virtual thread, made by spawn. Like a parallel worker it
+// runs in its own Interpreter.fork, so it can't change variables, lists or maps it didn't make;
+// tasks hand values to each other through channels. It may read them while their owner changes
+// them, which Environment, LoxList and LoxMap allow for. A task still running when the program
+// ends is abandoned.
+class LoxTask {
+    private final Thread thread;
+    // Set before the thread ends, and read only after joining it.
+    private Object result;
+    private Throwable error;
+
+    private LoxTask(Interpreter worker, LoxCallable function) {
+        this.thread = Thread.ofVirtual().unstarted(() -> run(worker, function));
+    }
+
+    static LoxTask spawn(Interpreter interpreter, LoxCallable function) {
+        LoxTask task = new LoxTask(interpreter.fork(), function);
+        task.thread.start();
+        return task;
+    }
+
+    private void run(Interpreter worker, LoxCallable function) {
+        try {
+            result = function.call(worker, Collections.emptyList());
+        } catch (Throwable e) {
+            error = e;
+        } finally {
+            worker.out.flush();
+        }
+    }
+
+    // What the task returned. Whatever it stopped with is raised again here, a Lox error so it is
+    // reported with the line it happened on, anything else so a failed task never looks like one
+    // that returned nil.
+    Object join(Interpreter interpreter) {
+        interpreter.out.flush();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Interrupted while joining a task.");
+        }
+        if (error instanceof RuntimeException) { throw (RuntimeException) error; }
+        if (error instanceof Error) { throw (Error) error; }
+        if (error != null) { throw new IllegalStateException(error); }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
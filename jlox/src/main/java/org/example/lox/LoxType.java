@@ -0,0 +1,17 @@
+package org.example.lox;
+
+public enum LoxType {
+    NUMBER, STRING, BOOLEAN, NIL, UNKNOWN;
+
+    static LoxType of(Object value) {
+        if (value == null) { return NIL; }
+        if (value instanceof Double) { return NUMBER; }
+        if (Rope.isString(value)) { return STRING; }
+        if (value instanceof Boolean) { return BOOLEAN; }
+        return UNKNOWN;
+    }
+
+    LoxType join(LoxType other) {
+        return this == other ? this : UNKNOWN;
+    }
+}
@@ -0,0 +1,84 @@
+package org.example.lox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Results of a pure function by argument tuple, dropping the least recently used entry once full.
+// Only calls whose arguments are plain values are cached: an instance could change between calls
+// without its identity changing. Parallel workers share the memo, hence the locking.
+// A pure body can also call through globals and captured variables, so a result only holds while
+// they keep the functions they had. Reassigning a variable that held a function starts a new
+// generation, and every memo drops what it cached in an earlier one.
+class Memo {
+    static final int DEFAULT_CAPACITY = 256;
+    static final Object MISSING = new Object();
+
+    private static final AtomicLong generations = new AtomicLong();
+
+    final String name;
+    long hits = 0;
+    long misses = 0;
+    private final Map<List<Object>, Object> entries;
+    private long generation = 0;
+
+    Memo(String name, int capacity) {
+        this.name = name;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Ropes are flattened so the key compares equal to one built from a plain string.
+    static List<Object> key(List<Object> arguments) {
+        Object[] key = new Object[arguments.size()];
+        for (int i = 0; i < key.length; i++) {
+            Object argument = arguments.get(i);
+            if (argument instanceof Rope) {
+                argument = argument.toString();
+            } else if (argument != null && !(argument instanceof Double)
+                    && !(argument instanceof String) && !(argument instanceof Boolean)) {
+                return null;
+            }
+            key[i] = argument;
+        }
+        return Arrays.asList(key);
+    }
+
+    static long generation() {
+        return generations.get();
+    }
+
+    // Called when a variable that held a function is given another value.
+    static void rebound(Object previous) {
+        if (previous instanceof LoxCallable) { generations.incrementAndGet(); }
+    }
+
+    synchronized Object get(List<Object> key, long generation) {
+        if (generation != this.generation) {
+            entries.clear();
+            this.generation = generation;
+        }
+        Object value = entries.getOrDefault(key, MISSING);
+        if (value == MISSING) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    // A result worked out while something was rebound is dropped, it may be stale already.
+    synchronized void put(List<Object> key, Object value, long generation) {
+        if (generation == this.generation && generation == generations.get()) { entries.put(key, value); }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
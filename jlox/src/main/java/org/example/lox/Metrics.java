@@ -0,0 +1,174 @@
+package org.example.lox;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Live counts for every interpreter in the JVM. They are LongAdders, so workers and engines on
+// other threads bump cells of their own instead of fighting over one word. Registered as an MXBean
+// by each LoxScriptEngine and by --metrics, which also prints them at exit.
+final class Metrics implements LoxMetricsMXBean {
+    static final Metrics INSTANCE = new Metrics();
+
+    static final LongAdder CALLS = new LongAdder();
+    static final LongAdder INSTANCES = new LongAdder();
+    static final LongAdder ENVIRONMENTS = new LongAdder();
+    static final LongAdder INLINE_CACHE_HITS = new LongAdder();
+    static final LongAdder INLINE_CACHE_MISSES = new LongAdder();
+    static final LongAdder FUNCTIONS_PROMOTED = new LongAdder();
+    static final LongAdder LOOPS_REPLACED = new LongAdder();
+    static final LongAdder SCRIPT_CACHE_HITS = new LongAdder();
+    static final LongAdder SCRIPT_CACHE_MISSES = new LongAdder();
+
+    private static final Map<String, Histogram> phases = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    // Durations in powers of two of a microsecond, the last bucket taking everything longer.
+    private static final class Histogram {
+        private static final int BUCKETS = 32;
+
+        final LongAdder[] buckets = new LongAdder[BUCKETS];
+        final LongAdder nanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void add(long elapsed) {
+            long micros = elapsed / 1000;
+            buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+            nanos.add(elapsed);
+        }
+
+        long[] counts() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return counts;
+        }
+
+        long runs() {
+            long runs = 0;
+            for (LongAdder bucket: buckets) {
+                runs += bucket.sum();
+            }
+            return runs;
+        }
+    }
+
+    static void phase(String name, long elapsed) {
+        phases.computeIfAbsent(name, key -> new Histogram()).add(elapsed);
+    }
+
+    static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("org.example.lox:type=Metrics"));
+        } catch (InstanceAlreadyExistsException e) {
+            // Another engine got there first.
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long getCalls() {
+        return CALLS.sum();
+    }
+
+    @Override
+    public long getInstances() {
+        return INSTANCES.sum();
+    }
+
+    @Override
+    public long getEnvironments() {
+        return ENVIRONMENTS.sum();
+    }
+
+    @Override
+    public long getInlineCacheHits() {
+        return INLINE_CACHE_HITS.sum();
+    }
+
+    @Override
+    public long getInlineCacheMisses() {
+        return INLINE_CACHE_MISSES.sum();
+    }
+
+    @Override
+    public double getInlineCacheHitRate() {
+        long hits = INLINE_CACHE_HITS.sum();
+        long lookups = hits + INLINE_CACHE_MISSES.sum();
+        return lookups == 0 ? Double.NaN : (double) hits / lookups;
+    }
+
+    @Override
+    public long getFunctionsPromoted() {
+        return FUNCTIONS_PROMOTED.sum();
+    }
+
+    @Override
+    public long getLoopsReplaced() {
+        return LOOPS_REPLACED.sum();
+    }
+
+    @Override
+    public long getScriptCacheHits() {
+        return SCRIPT_CACHE_HITS.sum();
+    }
+
+    @Override
+    public long getScriptCacheMisses() {
+        return SCRIPT_CACHE_MISSES.sum();
+    }
+
+    @Override
+    public Map<String, long[]> getPhaseHistograms() {
+        Map<String, long[]> histograms = new TreeMap<>();
+        phases.forEach((name, histogram) -> histograms.put(name, histogram.counts()));
+        return histograms;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMeanMillis() {
+        Map<String, Double> means = new TreeMap<>();
+        phases.forEach((name, histogram) -> {
+            long runs = histogram.runs();
+            means.put(name, runs == 0 ? 0.0 : histogram.nanos.sum() / 1e6 / runs);
+        });
+        return means;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter: new LongAdder[] {CALLS, INSTANCES, ENVIRONMENTS, INLINE_CACHE_HITS,
+                INLINE_CACHE_MISSES, FUNCTIONS_PROMOTED, LOOPS_REPLACED, SCRIPT_CACHE_HITS, SCRIPT_CACHE_MISSES}) {
+            counter.reset();
+        }
+        phases.clear();
+    }
+
+    void report(PrintStream out) {
+        out.printf("[metrics] %d calls, %d instances, %d environments%n", getCalls(), getInstances(), getEnvironments());
+        out.printf("[metrics] inline caches: %d hits, %d misses%n", getInlineCacheHits(), getInlineCacheMisses());
+        out.printf("[metrics] tiers: %d functions promoted, %d loops replaced%n", getFunctionsPromoted(), getLoopsReplaced());
+        out.printf("[metrics] script cache: %d hits, %d misses%n", getScriptCacheHits(), getScriptCacheMisses());
+        Map<String, Double> means = getPhaseMeanMillis();
+        for (Map.Entry<String, long[]> entry: getPhaseHistograms().entrySet()) {
+            out.printf("[metrics] %s: %d runs, %.3f ms mean%n", entry.getKey(), Arrays.stream(entry.getValue()).sum(),
+                    means.get(entry.getKey()));
+        }
+    }
+}
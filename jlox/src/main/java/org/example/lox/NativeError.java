@@ -0,0 +1,9 @@
+package org.example.lox;
+
+// Thrown by a native function, which has no token to blame. The interpreter turns it into a
+// RuntimeError at the call that reached the native.
+class NativeError extends RuntimeException {
+    NativeError(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.lox;
+
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+// A function implemented in Java. Each has an entry point per arity that takes its arguments
+// directly, which calls the Resolver marked as intrinsic use instead of building an argument list.
+// Math functions are kept as primitive operators so compiled code can skip boxing their input.
+// Every entry point is handed the interpreter making the call, which is a worker's own inside
+// parallelMap.
+abstract class NativeFunction implements LoxCallable {
+    final String name;
+    private final int arity;
+    // Depends only on its arguments and has no side effects, so pure functions may call it.
+    private final boolean pure;
+
+    NativeFunction(String name, int arity, boolean pure) {
+        this.name = name;
+        this.arity = arity;
+        this.pure = pure;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public boolean pure() {
+        return pure;
+    }
+
+    Object call0(Interpreter interpreter) {
+        throw new IllegalStateException(name + " doesn't take 0 arguments");
+    }
+
+    Object call1(Interpreter interpreter, Object a) {
+        throw new IllegalStateException(name + " doesn't take 1 argument");
+    }
+
+    Object call2(Interpreter interpreter, Object a, Object b) {
+        throw new IllegalStateException(name + " doesn't take 2 arguments");
+    }
+
+    Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        throw new IllegalStateException(name + " doesn't take 3 arguments");
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        switch (arity) {
+            case 0: return call0(interpreter);
+            case 1: return call1(interpreter, arguments.get(0));
+            case 2: return call2(interpreter, arguments.get(0), arguments.get(1));
+            case 3: return call3(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+        }
+        throw new IllegalStateException(name + " has no entry point for " + arity + " arguments");
+    }
+
+    @Override
+    public String toString() {
+        return name + "<native fn>";
+    }
+
+    static double number(String name, Object value, int position) {
+        if (value instanceof Double) { return (double)value; }
+        throw new NativeError("Argument " + position + " of '" + name + "' must be a number.");
+    }
+
+    static String string(String name, Object value, int position) {
+        if (Rope.isString(value)) { return value.toString(); }
+        throw new NativeError("Argument " + position + " of '" + name + "' must be a string.");
+    }
+
+    static int index(String name, Object value, int position) {
+        double number = number(name, value, position);
+        if (number != Math.floor(number)) {
+            throw new NativeError("Argument " + position + " of '" + name + "' must be a whole number.");
+        }
+        return (int)number;
+    }
+
+    interface Native0 { Object call(Interpreter interpreter); }
+    interface Native1 { Object call(Interpreter interpreter, Object a); }
+    interface Native2 { Object call(Interpreter interpreter, Object a, Object b); }
+    interface Native3 { Object call(Interpreter interpreter, Object a, Object b, Object c); }
+
+    static NativeFunction of(String name, boolean pure, Native0 body) {
+        return new NativeFunction(name, 0, pure) {
+            @Override
+            Object call0(Interpreter interpreter) {
+                return body.call(interpreter);
+            }
+        };
+    }
+
+    static NativeFunction of(String name, boolean pure, Native1 body) {
+        return new NativeFunction(name, 1, pure) {
+            @Override
+            Object call1(Interpreter interpreter, Object a) {
+                return body.call(interpreter, a);
+            }
+        };
+    }
+
+    static NativeFunction of(String name, boolean pure, Native2 body) {
+        return new NativeFunction(name, 2, pure) {
+            @Override
+            Object call2(Interpreter interpreter, Object a, Object b) {
+                return body.call(interpreter, a, b);
+            }
+        };
+    }
+
+    static NativeFunction of(String name, boolean pure, Native3 body) {
+        return new NativeFunction(name, 3, pure) {
+            @Override
+            Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+                return body.call(interpreter, a, b, c);
+            }
+        };
+    }
+
+    static final class Math1 extends NativeFunction {
+        final DoubleUnaryOperator operator;
+
+        Math1(String name, DoubleUnaryOperator operator) {
+            super(name, 1, true);
+            this.operator = operator;
+        }
+
+        @Override
+        Object call1(Interpreter interpreter, Object a) {
+            return operator.applyAsDouble(number(name, a, 1));
+        }
+    }
+
+    static final class Math2 extends NativeFunction {
+        final DoubleBinaryOperator operator;
+
+        Math2(String name, DoubleBinaryOperator operator) {
+            super(name, 2, true);
+            this.operator = operator;
+        }
+
+        @Override
+        Object call2(Interpreter interpreter, Object a, Object b) {
+            return operator.applyAsDouble(number(name, a, 1), number(name, b, 2));
+        }
+    }
+}
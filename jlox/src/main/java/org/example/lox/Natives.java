@@ -0,0 +1,257 @@
+package org.example.lox;
+
+import static org.example.lox.NativeFunction.index;
+import static org.example.lox.NativeFunction.number;
+import static org.example.lox.NativeFunction.string;
+import static org.example.lox.NativeFunction.of;
+
+import java.util.regex.Pattern;
+
+// The standard library: every native function, defined as a global when the interpreter starts.
+class Natives {
+    // Lox's own number syntax, with an optional sign.
+    private static final Pattern NUMBER = Pattern.compile("-?[0-9]+(\\.[0-9]+)?");
+
+    private final Globals globals;
+
+    private Natives(Globals globals) {
+        this.globals = globals;
+    }
+
+    static void install(Globals globals) {
+        Natives natives = new Natives(globals);
+        natives.math();
+        natives.strings();
+        natives.conversions();
+        natives.lists();
+        natives.maps();
+        natives.time();
+        natives.parallel();
+        natives.tasks();
+        natives.generators();
+        natives.java();
+    }
+
+    private void define(NativeFunction function) {
+        globals.define(function.name, function);
+    }
+
+    private void math() {
+        define(new NativeFunction.Math1("sqrt", Math::sqrt));
+        define(new NativeFunction.Math1("abs", Math::abs));
+        define(new NativeFunction.Math1("floor", Math::floor));
+        define(new NativeFunction.Math1("ceil", Math::ceil));
+        define(new NativeFunction.Math1("round", x -> Math.floor(x + 0.5)));
+        define(new NativeFunction.Math1("sin", Math::sin));
+        define(new NativeFunction.Math1("cos", Math::cos));
+        define(new NativeFunction.Math1("tan", Math::tan));
+        define(new NativeFunction.Math1("exp", Math::exp));
+        define(new NativeFunction.Math1("log", Math::log));
+        define(new NativeFunction.Math2("pow", Math::pow));
+        define(new NativeFunction.Math2("atan2", Math::atan2));
+        define(new NativeFunction.Math2("min", Math::min));
+        define(new NativeFunction.Math2("max", Math::max));
+        define(of("random", false, interpreter -> Math.random()));
+    }
+
+    private void strings() {
+        define(of("len", true, (interpreter, value) -> {
+            if (value instanceof LoxList) { return (double)((LoxList) value).size(); }
+            if (value instanceof LoxMap) { return (double)((LoxMap) value).size(); }
+            return (double)string("len", value, 1).length();
+        }));
+        define(of("substring", true, (interpreter, s, from, to) -> {
+            String string = string("substring", s, 1);
+            int start = index("substring", from, 2);
+            int end = index("substring", to, 3);
+            if (start < 0 || end > string.length() || start > end) {
+                throw new NativeError("Range " + start + ".." + end + " is out of bounds for a string of length "
+                        + string.length() + ".");
+            }
+            return interpreter.strings.dynamic(string.substring(start, end));
+        }));
+        define(of("indexOf", true, (interpreter, s, part) ->
+                (double)string("indexOf", s, 1).indexOf(string("indexOf", part, 2))));
+        define(of("upper", true, (interpreter, s) -> interpreter.strings.dynamic(string("upper", s, 1).toUpperCase())));
+        define(of("lower", true, (interpreter, s) -> interpreter.strings.dynamic(string("lower", s, 1).toLowerCase())));
+        define(of("trim", true, (interpreter, s) -> interpreter.strings.dynamic(string("trim", s, 1).trim())));
+    }
+
+    // Lists are mutable, so only reading them is pure; making one isn't either, since a memoized
+    // result would then be the same list every time.
+    private void lists() {
+        define(of("list", false, interpreter -> new LoxList(interpreter)));
+        define(of("append", false, (interpreter, list, value) -> {
+            LoxList target = list("append", list, 1);
+            checkOwner(interpreter, "append", target.owner);
+            target.append(value);
+            return null;
+        }));
+        // get and set take a map as well, with a key in place of the index.
+        define(of("get", true, (interpreter, collection, index) -> {
+            if (collection instanceof LoxMap) { return ((LoxMap) collection).get(index); }
+            return list("get", collection, 1).get(index("get", index, 2));
+        }));
+        define(of("set", false, (interpreter, collection, index, value) -> {
+            if (collection instanceof LoxMap) {
+                LoxMap target = (LoxMap) collection;
+                checkOwner(interpreter, "set", target.owner);
+                target.put(index, value);
+            } else {
+                LoxList target = list("set", collection, 1);
+                checkOwner(interpreter, "set", target.owner);
+                target.set(index("set", index, 2), value);
+            }
+            return value;
+        }));
+    }
+
+    private static LoxList list(String name, Object value, int position) {
+        if (value instanceof LoxList) { return (LoxList)value; }
+        throw new NativeError("Argument " + position + " of '" + name + "' must be a list.");
+    }
+
+    // A parallel worker or a task may only change the lists, maps and generators it made, since
+    // the rest are shared with the code running alongside it.
+    private static void checkOwner(Interpreter interpreter, String name, Interpreter owner) {
+        if (!interpreter.owns(owner)) {
+            throw new NativeError("'" + name + "' can't change a value shared with other tasks or workers.");
+        }
+    }
+
+    // Besides keys, which copies them into a list, a map can be walked without allocating through
+    // its slots: nextSlot(m, 0) is the first, nextSlot(m, slot + 1) the one after, nil the end.
+    // Adding keys while walking may grow the table and reorder the slots.
+    private void maps() {
+        define(of("map", false, interpreter -> new LoxMap(interpreter)));
+        define(of("has", true, (interpreter, map, key) -> map("has", map, 1).has(key)));
+        define(of("remove", false, (interpreter, map, key) -> {
+            LoxMap target = map("remove", map, 1);
+            checkOwner(interpreter, "remove", target.owner);
+            return target.remove(key);
+        }));
+        define(of("keys", false, (interpreter, map) -> {
+            LoxMap entries = map("keys", map, 1);
+            LoxList keys = new LoxList(interpreter);
+            for (int slot = entries.nextSlot(0); slot >= 0; slot = entries.nextSlot(slot + 1)) {
+                keys.append(entries.keyAt(slot));
+            }
+            return keys;
+        }));
+        define(of("nextSlot", true, (interpreter, map, slot) ->
+                map("nextSlot", map, 1).nextSlotNumber(index("nextSlot", slot, 2))));
+        define(of("keyAt", true, (interpreter, map, slot) -> map("keyAt", map, 1).keyAt(index("keyAt", slot, 2))));
+        define(of("valueAt", true, (interpreter, map, slot) ->
+                map("valueAt", map, 1).valueAt(index("valueAt", slot, 2))));
+    }
+
+    private static LoxMap map(String name, Object value, int position) {
+        if (value instanceof LoxMap) { return (LoxMap)value; }
+        throw new NativeError("Argument " + position + " of '" + name + "' must be a map.");
+    }
+
+    private void conversions() {
+        define(of("str", true, (interpreter, value) ->
+                Rope.isString(value) ? value : interpreter.strings.dynamic(Interpreter.stringify(value))));
+        // nil rather than an error for text that isn't a number, so scripts can test input with it.
+        define(of("num", true, (interpreter, value) -> {
+            if (value instanceof Double) { return value; }
+            String text = string("num", value, 1).trim();
+            return NUMBER.matcher(text).matches() ? Double.parseDouble(text) : null;
+        }));
+        define(of("type", true, (interpreter, value) -> interpreter.strings.intern(typeName(value))));
+    }
+
+    private static String typeName(Object value) {
+        if (value instanceof LoxClass || value instanceof JavaClass) { return "class"; }
+        if (value instanceof LoxCallable) { return "function"; }
+        if (value instanceof LoxInstance) { return "instance"; }
+        if (value instanceof LoxList) { return "list"; }
+        if (value instanceof LoxMap) { return "map"; }
+        if (value instanceof LoxTask) { return "task"; }
+        if (value instanceof LoxChannel) { return "channel"; }
+        if (value instanceof LoxGenerator) { return "generator"; }
+        return LoxType.of(value).name().toLowerCase();
+    }
+
+    private void time() {
+        define(of("clock", false, interpreter -> (double)System.currentTimeMillis() / 1000.0));
+        define(of("millis", false, interpreter -> (double)System.currentTimeMillis()));
+    }
+
+    // Both take a list and a function and run the calls on a fork-join pool, see Parallel.
+    private void parallel() {
+        define(of("parallelMap", false, (interpreter, list, function) ->
+                Parallel.map(interpreter, list("parallelMap", list, 1),
+                        function("parallelMap", function, 2, 1))));
+        define(of("parallelReduce", false, (interpreter, list, function, initial) ->
+                Parallel.reduce(interpreter, list("parallelReduce", list, 1),
+                        function("parallelReduce", function, 2, 2), initial)));
+    }
+
+    private static LoxCallable function(String name, Object value, int position, int arity) {
+        if (value instanceof LoxCallable && (((LoxCallable) value).arity() == arity || ((LoxCallable) value).arity() < 0)) {
+            return (LoxCallable)value;
+        }
+        throw new NativeError("Argument " + position + " of '" + name + "' must be a function taking "
+                + arity + (arity == 1 ? " argument." : " arguments."));
+    }
+
+    // spawn runs a function of no arguments on a virtual thread; join waits for it and returns
+    // what it returned. Channels are how tasks pass values, see LoxChannel.
+    private void tasks() {
+        define(of("spawn", false, (interpreter, function) ->
+                LoxTask.spawn(interpreter, function("spawn", function, 1, 0))));
+        define(of("join", false, (interpreter, task) -> task("join", task, 1).join(interpreter)));
+        define(of("channel", false, (interpreter, capacity) -> {
+            int size = index("channel", capacity, 1);
+            if (size < 1) { throw new NativeError("A channel needs a capacity of at least 1."); }
+            return new LoxChannel(size);
+        }));
+        define(of("send", false, (interpreter, channel, value) -> {
+            channel("send", channel, 1).send(interpreter, value);
+            return null;
+        }));
+        define(of("receive", false, (interpreter, channel) -> channel("receive", channel, 1).receive(interpreter)));
+        define(of("close", false, (interpreter, channel) -> {
+            channel("close", channel, 1).close();
+            return null;
+        }));
+    }
+
+    private static LoxTask task(String name, Object value, int position) {
+        if (value instanceof LoxTask) { return (LoxTask)value; }
+        throw new NativeError("Argument " + position + " of '" + name + "' must be a task.");
+    }
+
+    private static LoxChannel channel(String name, Object value, int position) {
+        if (value instanceof LoxChannel) { return (LoxChannel)value; }
+        throw new NativeError("Argument " + position + " of '" + name + "' must be a channel.");
+    }
+
+    // Calling a function that yields returns a generator. hasNext runs it to its next yield and
+    // says whether there was one; next returns that value.
+    private void generators() {
+        define(of("hasNext", false, (interpreter, generator) -> {
+            LoxGenerator target = generator("hasNext", generator, 1);
+            checkOwner(interpreter, "hasNext", target.owner);
+            return target.hasNext();
+        }));
+        define(of("next", false, (interpreter, generator) -> {
+            LoxGenerator target = generator("next", generator, 1);
+            checkOwner(interpreter, "next", target.owner);
+            return target.next();
+        }));
+    }
+
+    // A Java class the host allowed, see Interop.
+    private void java() {
+        define(of("javaClass", false, (interpreter, name) ->
+                interpreter.interop.javaClass(string("javaClass", name, 1))));
+    }
+
+    private static LoxGenerator generator(String name, Object value, int position) {
+        if (value instanceof LoxGenerator) { return (LoxGenerator)value; }
+        throw new NativeError("Argument " + position + " of '" + name + "' must be a generator.");
+    }
+}
@@ -0,0 +1,611 @@
+package org.example.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private static final int MAX_INLINE_NODES = 24;
+
+    // Top level functions whose body is a single side-effect free return. They are kept across
+    // runs so that REPL lines can inline functions declared on earlier lines.
+    private final Map<String, Stmt.Function> inlineable = new HashMap<>();
+    private final Stack<Set<String>> scopes = new Stack<>();
+    // Where the scopes of the function being optimized start, -1 in top-level code.
+    private int functionBase = -1;
+    private final LoopOptimizer loops = new LoopOptimizer();
+    private final StringTable strings;
+    // Inside a pure function only pure functions may be inlined, since inlining would bypass the
+    // interpreter's check on what a pure function calls.
+    private boolean pure = false;
+    // Whether the last optimize dropped code that was never evaluated, see Lox.compile.
+    boolean pruned = false;
+    // Passes Lox.compile runs unless switched off with --no-opt, to check they don't change what a
+    // program does.
+    boolean inferTypes = true;
+    boolean optimizeLoops = true;
+    boolean frameSlots = true;
+
+    Optimizer(StringTable strings) {
+        this.strings = strings;
+    }
+
+    boolean disable(String pass) {
+        switch (pass) {
+            case "types":
+                inferTypes = false;
+                return true;
+            case "loops":
+                optimizeLoops = false;
+                return true;
+            case "slots":
+                frameSlots = false;
+                return true;
+        }
+        return false;
+    }
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        pruned = false;
+        Set<String> declared = new HashSet<>();
+        Set<String> redeclared = new HashSet<>();
+        for (Stmt stmt: statements) {
+            if (stmt instanceof Stmt.Function && !declared.add(((Stmt.Function) stmt).name.lexeme)) {
+                redeclared.add(((Stmt.Function) stmt).name.lexeme);
+            }
+        }
+
+        List<Stmt> folded = new ArrayList<>();
+        for (Stmt stmt: statements) {
+            if (stmt instanceof Stmt.Function) {
+                Stmt.Function function = (Stmt.Function) optimize(stmt);
+                if (isInlineable(function) && !redeclared.contains(function.name.lexeme)) {
+                    inlineable.put(function.name.lexeme, function);
+                } else {
+                    inlineable.remove(function.name.lexeme);
+                }
+                stmt = function;
+            } else if (stmt instanceof Stmt.Var) {
+                inlineable.remove(((Stmt.Var) stmt).name.lexeme);
+            } else if (stmt instanceof Stmt.Class) {
+                inlineable.remove(((Stmt.Class) stmt).name.lexeme);
+            }
+            folded.add(stmt);
+        }
+
+        List<Stmt> optimized = optimizeAll(folded);
+        // The last statement's value is what a script run through LoxScriptEngine evaluates to, so
+        // it stays even when it folds to a constant.
+        Stmt last = folded.isEmpty() ? null : folded.get(folded.size() - 1);
+        if (last instanceof Stmt.Expression && (optimized.isEmpty() || optimized.get(optimized.size() - 1) != last)) {
+            Expr value = optimize(((Stmt.Expression) last).expression);
+            if (value instanceof Expr.Literal) { optimized.add(new Stmt.Expression(value)); }
+        }
+        return optimized;
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>();
+        for (Stmt stmt: statements) {
+            Stmt result = optimize(stmt);
+            if (result != null) { optimized.add(result); }
+        }
+        return optimized;
+    }
+
+    // Counted loops are only formed in local scopes, where nothing outside the loop can
+    // reach the counter variable.
+    private List<Stmt> countLoops(List<Stmt> statements) {
+        if (!optimizeLoops) { return statements; }
+        for (int i = 0; i + 1 < statements.size(); i++) {
+            if (statements.get(i) instanceof Stmt.Var && statements.get(i + 1) instanceof Stmt.While) {
+                Stmt counted = loops.counted((Stmt.Var) statements.get(i), (Stmt.While) statements.get(i + 1),
+                        functionLocals());
+                if (counted != null) { statements.set(i + 1, counted); }
+            }
+        }
+        return statements;
+    }
+
+    private boolean unchanged(List<Stmt> before, List<Stmt> after) {
+        if (before.size() != after.size()) { return false; }
+        for (int i = 0; i < before.size(); i++) {
+            if (before.get(i) != after.get(i)) { return false; }
+        }
+        return true;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) { return expr; }
+        return new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Expr folded = fold(expr.operator, ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+            if (folded != null) { return folded; }
+        }
+
+        if (left == expr.left && right == expr.right) { return expr; }
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    // Only folds operand combinations the interpreter evaluates without a runtime error,
+    // everything else is left in place so the error is still reported at runtime.
+    private Expr fold(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            double a = (double) left;
+            double b = (double) right;
+            switch (operator.type) {
+                case TokenType.MINUS: return new Expr.Literal(a - b);
+                case TokenType.STAR: return new Expr.Literal(a * b);
+                case TokenType.SLASH: return new Expr.Literal(a / b);
+                case TokenType.PLUS: return new Expr.Literal(a + b);
+                case TokenType.GREATER: return new Expr.Literal(a > b);
+                case TokenType.GREATER_EQUAL: return new Expr.Literal(a >= b);
+                case TokenType.LESS: return new Expr.Literal(a < b);
+                case TokenType.LESS_EQUAL: return new Expr.Literal(a <= b);
+            }
+        }
+
+        if (operator.type == TokenType.PLUS && left instanceof String && right instanceof String) {
+            return new Expr.Literal(strings.intern((String) left + (String) right));
+        }
+
+        if (operator.type == TokenType.EQUAL_EQUAL) {
+            return new Expr.Literal(Interpreter.isEqual(left, right));
+        }
+        if (operator.type == TokenType.BANG_EQUAL) {
+            return new Expr.Literal(!Interpreter.isEqual(left, right));
+        }
+        return null;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        boolean changed = callee != expr.callee;
+
+        List<Expr> arguments = new ArrayList<>();
+        for (Expr argument: expr.arguments) {
+            Expr optimized = optimize(argument);
+            changed |= optimized != argument;
+            arguments.add(optimized);
+        }
+
+        Expr.Call call = changed ? new Expr.Call(callee, expr.paren, arguments) : expr;
+        Expr inlined = inline(call);
+        return inlined == null ? call : inlined;
+    }
+
+    // The call is kept next to the inlined body so the interpreter can fall back to it if the
+    // callee no longer refers to the inlined declaration by the time the call runs. Arguments only
+    // replace the parameters if the body then still reads each variable once, left to right, as
+    // the call would. Otherwise the body is bound: the arguments are stored first, and the body
+    // reads them back through its parameters.
+    private Expr inline(Expr.Call call) {
+        if (!(call.callee instanceof Expr.Variable)) { return null; }
+        Token name = ((Expr.Variable) call.callee).name;
+        Stmt.Function function = inlineable.get(name.lexeme);
+        if (function == null || isLocal(name.lexeme)) { return null; }
+        if (pure && !function.pure) { return null; }
+        if (call.arguments.size() != function.params.size()) { return null; }
+
+        Map<String, Expr> arguments = new HashMap<>();
+        Map<String, Expr> params = new HashMap<>();
+        // Literals can go anywhere, but reading a variable can fail.
+        List<String> variables = new ArrayList<>();
+        for (int i = 0; i < call.arguments.size(); i++) {
+            Expr argument = call.arguments.get(i);
+            if (!(argument instanceof Expr.Literal) && !(argument instanceof Expr.Variable)) { return null; }
+            String param = function.params.get(i).lexeme;
+            arguments.put(param, argument);
+            params.put(param, null);
+            if (argument instanceof Expr.Variable) { variables.add(param); }
+        }
+
+        Expr body = ((Stmt.Return) function.body.get(0)).value;
+        Substitution substitution = new Substitution(arguments);
+        Expr inlined = substitution.apply(body);
+        boolean bound = !substitution.readsOnceInOrder(variables);
+        if (bound) {
+            substitution = new Substitution(params);
+            inlined = substitution.apply(body);
+        }
+        for (String free: substitution.free) {
+            if (isLocal(free)) { return null; }
+        }
+        return new Expr.Inline(call, function, optimize(inlined), bound);
+    }
+
+    // Only leaf functions qualify: no calls or assignments means the body can't be recursive and
+    // nothing can change a variable argument between the call and its use in the body.
+    private boolean isInlineable(Stmt.Function function) {
+        if (function.body.size() != 1 || !(function.body.get(0) instanceof Stmt.Return)) { return false; }
+        Expr value = ((Stmt.Return) function.body.get(0)).value;
+        if (value == null) { return false; }
+
+        Map<String, Expr> params = new HashMap<>();
+        for (Token param: function.params) {
+            params.put(param.lexeme, null);
+        }
+        Substitution substitution = new Substitution(params);
+        substitution.apply(value);
+        return substitution.leaf && substitution.size <= MAX_INLINE_NODES
+                && substitution.used.containsAll(params.keySet());
+    }
+
+    private boolean isLocal(String name) {
+        for (Set<String> scope: scopes) {
+            if (scope.contains(name)) { return true; }
+        }
+        return false;
+    }
+
+    // The names declared so far in the function being optimized, null in top-level code, see
+    // LoopOptimizer.
+    private Set<String> functionLocals() {
+        if (functionBase < 0) { return null; }
+        Set<String> locals = new HashSet<>();
+        for (int i = functionBase; i < scopes.size(); i++) {
+            locals.addAll(scopes.get(i));
+        }
+        return locals;
+    }
+
+    private void declare(Token name) {
+        if (scopes.isEmpty()) { return; }
+        scopes.peek().add(name.lexeme);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // Precedence is already encoded in the tree shape, so the grouping node itself is redundant.
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) { return expr; }
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitProbeExpr(Expr.Probe expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal) {
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+            boolean shortCircuits = expr.operator.type == TokenType.OR ? truthy : !truthy;
+            pruned |= shortCircuits;
+            return shortCircuits ? left : right;
+        }
+
+        if (left == expr.left && right == expr.right) { return expr; }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) { return expr; }
+        return new Expr.Set(object, expr.name, expr.value);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).value;
+            if (expr.operator.type == TokenType.BANG) {
+                return new Expr.Literal(!Interpreter.isTruthy(value));
+            }
+            if (expr.operator.type == TokenType.MINUS && value instanceof Double) {
+                return new Expr.Literal(-(double) value);
+            }
+        }
+
+        if (right == expr.right) { return expr; }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        scopes.push(new HashSet<>());
+        List<Stmt> statements = countLoops(optimizeAll(stmt.statements));
+        scopes.pop();
+
+        if (unchanged(stmt.statements, statements)) { return stmt; }
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        // A bare constant has no effect, so the whole statement can go.
+        if (expression instanceof Expr.Literal) { return null; }
+        if (expression == stmt.expression) { return stmt; }
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+
+        if (condition instanceof Expr.Literal) {
+            pruned = true;
+            return Interpreter.isTruthy(((Expr.Literal) condition).value) ? thenBranch : elseBranch;
+        }
+
+        if (thenBranch == null) { thenBranch = new Stmt.Block(new ArrayList<>()); }
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) { return stmt; }
+        return new Stmt.Print(stmt.keyword, expression);
+    }
+
+    @Override
+    public Stmt visitYieldStmt(Stmt.Yield stmt) {
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) { return stmt; }
+        return new Stmt.Yield(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) { return stmt; }
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) { return stmt; }
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name);
+
+        boolean changed = false;
+        List<Stmt.Function> methods = new ArrayList<>();
+        for (Stmt.Function method: stmt.methods) {
+            Stmt.Function optimized = optimizeFunction(method);
+            changed |= optimized != method;
+            methods.add(optimized);
+        }
+
+        if (!changed) { return stmt; }
+        return new Stmt.Class(stmt.name, methods);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = stmt.Initializer == null ? null : optimize(stmt.Initializer);
+        declare(stmt.name);
+        if (initializer == stmt.Initializer) { return stmt; }
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+            pruned = true;
+            return null;
+        }
+
+        Stmt body = optimize(stmt.body);
+        if (body == null) { body = new Stmt.Block(new ArrayList<>()); }
+        Stmt.While loop = stmt;
+        if (condition != stmt.condition || body != stmt.body) {
+            loop = new Stmt.While(condition, body);
+            loop.invariants = stmt.invariants;
+        }
+        return optimizeLoops ? loops.hoist(loop, functionLocals()) : loop;
+    }
+
+    @Override
+    public Stmt visitCountedLoopStmt(Stmt.CountedLoop stmt) {
+        return stmt;
+    }
+
+    // Probes are added after optimizing, see Hotspots.
+    @Override
+    public Stmt visitProbeStmt(Stmt.Probe stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name);
+        return optimizeFunction(stmt);
+    }
+
+    private Stmt.Function optimizeFunction(Stmt.Function function) {
+        Set<String> scope = new HashSet<>();
+        for (Token param: function.params) {
+            scope.add(param.lexeme);
+        }
+        int enclosingBase = functionBase;
+        functionBase = scopes.size();
+        scopes.push(scope);
+        boolean enclosingPure = pure;
+        pure |= function.pure;
+        List<Stmt> body = countLoops(optimizeAll(function.body));
+        pure = enclosingPure;
+        scopes.pop();
+        functionBase = enclosingBase;
+
+        if (unchanged(function.body, body)) { return function; }
+        return new Stmt.Function(function.name, function.params, body, function.pure, function.generator);
+    }
+
+    // Copies an inline candidate's body, replacing parameters with the call's arguments, and
+    // records what the caller needs to know to decide whether the copy is safe to use.
+    private static class Substitution implements Expr.Visitor<Expr> {
+        private final Map<String, Expr> arguments;
+        final Set<String> used = new HashSet<>();
+        final Set<String> free = new HashSet<>();
+        // Parameters in the order the body reads them, and those it might skip.
+        private final List<String> reads = new ArrayList<>();
+        private final Set<String> conditional = new HashSet<>();
+        private int branches = 0;
+        boolean leaf = true;
+        int size = 0;
+
+        Substitution(Map<String, Expr> arguments) {
+            this.arguments = arguments;
+        }
+
+        Expr apply(Expr expr) {
+            size++;
+            return expr.accept(this);
+        }
+
+        boolean readsOnceInOrder(List<String> params) {
+            List<String> read = new ArrayList<>(reads);
+            read.retainAll(params);
+            return read.equals(params) && Collections.disjoint(conditional, params);
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            leaf = false;
+            return new Expr.Assign(expr.name, apply(expr.value));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            return new Expr.Binary(apply(expr.left), expr.operator, apply(expr.right));
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            leaf = false;
+            List<Expr> arguments = new ArrayList<>();
+            for (Expr argument: expr.arguments) {
+                arguments.add(apply(argument));
+            }
+            return new Expr.Call(apply(expr.callee), expr.paren, arguments);
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return new Expr.Grouping(apply(expr.expression));
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr) {
+            return new Expr.Get(apply(expr.object), expr.name);
+        }
+
+        @Override
+        public Expr visitInlineExpr(Expr.Inline expr) {
+            leaf = false;
+            return expr;
+        }
+
+        @Override
+        public Expr visitInvariantExpr(Expr.Invariant expr) {
+            leaf = false;
+            return expr;
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return new Expr.Literal(expr.value);
+        }
+
+        @Override
+        public Expr visitProbeExpr(Expr.Probe expr) {
+            leaf = false;
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            Expr left = apply(expr.left);
+            branches++;
+            Expr right = apply(expr.right);
+            branches--;
+            return new Expr.Logical(left, expr.operator, right);
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            leaf = false;
+            return new Expr.Set(apply(expr.object), expr.name, expr.value);
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            return new Expr.Unary(expr.operator, apply(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            if (arguments.containsKey(expr.name.lexeme)) {
+                used.add(expr.name.lexeme);
+                reads.add(expr.name.lexeme);
+                if (branches > 0) { conditional.add(expr.name.lexeme); }
+                Expr argument = arguments.get(expr.name.lexeme);
+                return argument == null ? new Expr.Variable(expr.name) : argument;
+            }
+            free.add(expr.name.lexeme);
+            return new Expr.Variable(expr.name);
+        }
+    }
+}
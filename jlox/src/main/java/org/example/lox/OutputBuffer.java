@@ -0,0 +1,80 @@
+package org.example.lox;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+// Where print writes. Unlike System.out it takes no lock and doesn't flush per line: output only
+// goes out when the buffer fills or at a flush point, which Lox hits before anything else is
+// written to the terminal (errors, the REPL prompt) and at exit. Parallel workers each fill a
+// buffer of their own over the same writer, which keeps every line in one piece.
+class OutputBuffer {
+    static final int DEFAULT_CAPACITY = 8192;
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final Writer writer;
+    private char[] buffer = new char[DEFAULT_CAPACITY];
+    private int count = 0;
+    // Like PrintStream, a failed write doesn't stop the script; the output is just lost.
+    boolean failed = false;
+
+    OutputBuffer() {
+        this.writer = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), Charset.defaultCharset());
+    }
+
+    OutputBuffer(Writer writer) {
+        this(writer, DEFAULT_CAPACITY);
+    }
+
+    private OutputBuffer(Writer writer, int capacity) {
+        this.writer = writer;
+        this.buffer = new char[capacity];
+    }
+
+    OutputBuffer fork() {
+        return new OutputBuffer(writer, buffer.length);
+    }
+
+    void resize(int capacity) {
+        flush();
+        buffer = new char[capacity];
+    }
+
+    // The line and its newline always go to the writer in the same write.
+    void println(String line) {
+        int length = line.length() + NEWLINE.length();
+        if (count + length > buffer.length) {
+            flush();
+            if (length > buffer.length) {
+                writeThrough(line + NEWLINE);
+                return;
+            }
+        }
+        line.getChars(0, line.length(), buffer, count);
+        count += line.length();
+        NEWLINE.getChars(0, NEWLINE.length(), buffer, count);
+        count += NEWLINE.length();
+    }
+
+    private void writeThrough(String string) {
+        try {
+            writer.write(string);
+            writer.flush();
+        } catch (IOException e) {
+            failed = true;
+        }
+    }
+
+    void flush() {
+        try {
+            if (count > 0) { writer.write(buffer, 0, count); }
+            writer.flush();
+        } catch (IOException e) {
+            failed = true;
+        }
+        count = 0;
+    }
+}
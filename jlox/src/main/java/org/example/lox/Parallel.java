@@ -0,0 +1,143 @@
+package org.example.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// parallelMap and parallelReduce. The list is split in halves down to a few ranges per core, and
+// each range runs on the pool in its own Interpreter.fork. The workers share the resolved and
+// compiled code and read whatever the program made before the call, but every variable, list or
+// map they didn't make themselves is read-only to them, so they never race on the same data.
+class Parallel {
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    // Ranges per core. More than one, so a worker done early can steal from a slower one.
+    private static final int SPLITS = 4;
+
+    static LoxList map(Interpreter interpreter, LoxList list, LoxCallable function) {
+        interpreter.out.flush();
+        Object[] results = new Object[list.size()];
+        POOL.invoke(new MapTask(interpreter, list, function, results, 0, list.size(), grain(list)));
+
+        LoxList mapped = new LoxList(interpreter);
+        for (Object result: results) {
+            mapped.append(result);
+        }
+        return mapped;
+    }
+
+    // initial starts every range, so it has to be an identity for function, and function has to
+    // be associative: the ranges are combined in order, but grouped however they were split.
+    static Object reduce(Interpreter interpreter, LoxList list, LoxCallable function, Object initial) {
+        if (list.size() == 0) { return initial; }
+        interpreter.out.flush();
+        return POOL.invoke(new ReduceTask(interpreter, list, function, initial, 0, list.size(), grain(list)));
+    }
+
+    private static int grain(LoxList list) {
+        return Math.max(1, list.size() / (POOL.getParallelism() * SPLITS));
+    }
+
+    private interface Work {
+        Object run(Interpreter worker);
+    }
+
+    // What the caller printed went out before the tasks started, and what the worker prints goes
+    // out before its task completes, so the output of the call lands between the two.
+    private static Object inWorker(Interpreter interpreter, Work work) {
+        Interpreter worker = interpreter.fork();
+        try {
+            return work.run(worker);
+        } finally {
+            worker.out.flush();
+        }
+    }
+
+    private static final class MapTask extends RecursiveAction {
+        private final Interpreter interpreter;
+        private final LoxList list;
+        private final LoxCallable function;
+        private final Object[] results;
+        private final int from, to, grain;
+
+        MapTask(Interpreter interpreter, LoxList list, LoxCallable function, Object[] results,
+                int from, int to, int grain) {
+            this.interpreter = interpreter;
+            this.list = list;
+            this.function = function;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                MapTask second = new MapTask(interpreter, list, function, results, middle, to, grain);
+                second.fork();
+                // Waiting for the other half even on failure keeps workers from outliving the call.
+                try {
+                    new MapTask(interpreter, list, function, results, from, middle, grain).compute();
+                } finally {
+                    second.quietlyJoin();
+                }
+                second.join();
+                return;
+            }
+
+            inWorker(interpreter, worker -> {
+                for (int i = from; i < to; i++) {
+                    results[i] = function.call(worker, Collections.singletonList(list.get(i)));
+                }
+                return null;
+            });
+        }
+    }
+
+    private static final class ReduceTask extends RecursiveTask<Object> {
+        private final Interpreter interpreter;
+        private final LoxList list;
+        private final LoxCallable function;
+        private final Object initial;
+        private final int from, to, grain;
+
+        ReduceTask(Interpreter interpreter, LoxList list, LoxCallable function, Object initial,
+                   int from, int to, int grain) {
+            this.interpreter = interpreter;
+            this.list = list;
+            this.function = function;
+            this.initial = initial;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                ReduceTask second = new ReduceTask(interpreter, list, function, initial, middle, to, grain);
+                second.fork();
+                Object left;
+                try {
+                    left = new ReduceTask(interpreter, list, function, initial, from, middle, grain).compute();
+                } finally {
+                    second.quietlyJoin();
+                }
+                Object right = second.join();
+                return inWorker(interpreter, worker -> function.call(worker, Arrays.asList(left, right)));
+            }
+
+            return inWorker(interpreter, worker -> {
+                Object result = initial;
+                for (int i = from; i < to; i++) {
+                    result = function.call(worker, Arrays.asList(result, list.get(i)));
+                }
+                return result;
+            });
+        }
+    }
+}
@@ -9,6 +9,8 @@ public class Parser {
 
     private List<Token> tokens;
     private int current = 0;
+    // Whether the function being parsed has yielded, which makes it a generator.
+    private boolean yielded = false;
 
     Parser (List<Token> tokens) {
         this.tokens = tokens;
@@ -26,10 +28,11 @@ public class Parser {
                 return classDeclaration();
             }
             if (match(TokenType.FUN)) {
-                return function("function");
+                return function("function", false);
             }
-            if (match(TokenType.RETURN)) {
-                return returnStatement();
+            if (match(TokenType.PURE)) {
+                consume(TokenType.FUN, "Expect 'fun' after 'pure'.");
+                return function("function", true);
             }
             if (match(TokenType.VAR)) {
                 return varDeclaration();
@@ -46,7 +49,7 @@ public class Parser {
 
         List<Stmt.Function> methods = new ArrayList<>();
         while(!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
-            methods.add(function("method"));
+            methods.add(function("method", false));
         }
 
         consume(TokenType.RIGHT_BRACE, "Expect '}' after class body.");
@@ -64,6 +67,14 @@ public class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt yieldStatement() {
+        Token keyword = previous();
+        Expr value = expression();
+        consume(TokenType.SEMICOLON, "Expect ';' after yield statement.");
+        yielded = true;
+        return new Stmt.Yield(keyword, value);
+    }
+
     private Stmt varDeclaration() {
         Token name = consume(TokenType.IDENTIFIER, "Expect a variable name.");
 
@@ -77,6 +88,8 @@ public class Parser {
 
     private Stmt statement() {
         if (match(TokenType.PRINT)) { return printStatement(); }
+        if (match(TokenType.RETURN)) { return returnStatement(); }
+        if (match(TokenType.YIELD)) { return yieldStatement(); }
         if (match(TokenType.FOR)) { return forStatement(); }
         if (match(TokenType.IF)) { return ifStatement(); }
         if (match(TokenType.WHILE)) { return whileStatement(); }
@@ -89,7 +102,7 @@ public class Parser {
 
         Stmt initializer;
         if (match(TokenType.SEMICOLON)) { initializer = null; }
-        else if (match(TokenType.FOR)) { initializer = varDeclaration(); }
+        else if (match(TokenType.VAR)) { initializer = varDeclaration(); }
         else { initializer = expressionStatement(); }
 
         Expr condition = null;
@@ -137,9 +150,10 @@ public class Parser {
     }
 
     private Stmt printStatement() {
+        Token keyword = previous();
         Expr value = expression();
         consume(TokenType.SEMICOLON, "Expect ';' after value.");
-        return new Stmt.Print(value);
+        return new Stmt.Print(keyword, value);
     }
 
     private Stmt expressionStatement() {
@@ -148,7 +162,7 @@ public class Parser {
         return new Stmt.Expression(value);
     }
 
-    private Stmt.Function function(String kind) {
+    private Stmt.Function function(String kind, boolean pure) {
         Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + "name.");
         consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + ".");
         List<Token> parameters = new ArrayList<>();
@@ -162,8 +176,12 @@ public class Parser {
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after " + kind + ".");
         consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        boolean enclosingYielded = yielded;
+        yielded = false;
         List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+        boolean generator = yielded;
+        yielded = enclosingYielded;
+        return new Stmt.Function(name, parameters, body, pure, generator);
     }
 
     private List<Stmt> block() {
@@ -363,7 +381,9 @@ public class Parser {
                 case TokenType.IF:
                 case TokenType.WHILE:
                 case TokenType.PRINT:
+                case TokenType.PURE:
                 case TokenType.RETURN:
+                case TokenType.YIELD:
                     return;
             }
             advance();
@@ -0,0 +1,173 @@
+package org.example.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// A sampling profiler for Lox code, on with --profile=file. Every interpreter keeps a shadow stack
+// of the functions it is running, pushed and popped in executeBody, with the line of the last call
+// each made. A daemon thread reads the stacks of the threads that are running once an interval and
+// counts each distinct stack; at exit the counts are written in the collapsed format flamegraph.pl
+// and speedscope read. Stacks are read without locking, so a sample taken mid-call can be off by a
+// frame. Functions the Optimizer inlined don't appear.
+class Profiler {
+    private final Path path;
+    private long interval;
+    private final Queue<WeakReference<Stack>> stacks = new ConcurrentLinkedQueue<>();
+    // Only touched by the sampler, and read once it has stopped.
+    private final Map<String, long[]> counts = new HashMap<>();
+    private long samples = 0;
+    private Thread sampler;
+    private volatile boolean running = false;
+
+    Profiler(Path path) {
+        this.path = path;
+    }
+
+    // The shadow stack of an interpreter running on thread, or on whichever thread first calls a
+    // function when thread is null.
+    Stack stack(String root, Thread thread) {
+        Stack stack = new Stack(this, root, thread);
+        stacks.add(new WeakReference<>(stack));
+        return stack;
+    }
+
+    void start(long interval) {
+        this.interval = interval;
+        running = true;
+        sampler = new Thread(this::run, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(interval);
+            sample();
+        }
+    }
+
+    private void sample() {
+        StringBuilder key = new StringBuilder();
+        for (Iterator<WeakReference<Stack>> it = stacks.iterator(); it.hasNext(); ) {
+            Stack stack = it.next().get();
+            if (stack == null) {
+                it.remove();
+                continue;
+            }
+            Thread thread = stack.thread;
+            if (thread == null || thread.getState() != Thread.State.RUNNABLE) { continue; }
+            key.setLength(0);
+            if (stack.collapse(key)) {
+                counts.computeIfAbsent(key.toString(), k -> new long[1])[0]++;
+                samples++;
+            }
+        }
+    }
+
+    // Stops sampling and writes one line per distinct stack, root first, with its sample count.
+    void stop() {
+        running = false;
+        if (sampler != null) {
+            LockSupport.unpark(sampler);
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        List<String> keys = new ArrayList<>(counts.keySet());
+        keys.sort(null);
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (String key: keys) {
+                writer.write(key + " " + counts.get(key)[0] + "\n");
+            }
+        } catch (IOException e) {
+            System.err.println("[profile] Unable to write " + path + ": " + e.getMessage());
+            return;
+        }
+        System.err.println("[profile] " + samples + " samples, " + keys.size() + " stacks written to " + path);
+    }
+
+    // Written only by the thread running the interpreter. Frame 0 is the root: top-level code, a
+    // worker or a generator.
+    static final class Stack {
+        private static final VarHandle DEPTH;
+        static {
+            try {
+                DEPTH = MethodHandles.lookup().findVarHandle(Stack.class, "depth", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final Profiler profiler;
+        private final String root;
+        private volatile Thread thread;
+        private Stmt.Function[] functions = new Stmt.Function[32];
+        private int[] lines = new int[32];
+        // Released after the frame it covers is written, so the sampler never sees a frame half made.
+        private int depth = 1;
+
+        private Stack(Profiler profiler, String root, Thread thread) {
+            this.profiler = profiler;
+            this.root = root;
+            this.thread = thread;
+        }
+
+        // The stack of an interpreter forked from this one.
+        Stack fork(String root) {
+            return profiler.stack(root, null);
+        }
+
+        void push(Stmt.Function function) {
+            if (depth == 1 && thread != Thread.currentThread()) { thread = Thread.currentThread(); }
+            if (depth == functions.length) {
+                functions = Arrays.copyOf(functions, depth * 2);
+                lines = Arrays.copyOf(lines, depth * 2);
+            }
+            functions[depth] = function;
+            lines[depth] = function.name.line;
+            DEPTH.setRelease(this, depth + 1);
+        }
+
+        void pop() {
+            DEPTH.setRelease(this, depth - 1);
+        }
+
+        // The line of the call the top frame is making.
+        void at(int line) {
+            lines[depth - 1] = line;
+        }
+
+        private boolean collapse(StringBuilder key) {
+            int depth = (int) DEPTH.getAcquire(this);
+            Stmt.Function[] functions = this.functions;
+            int[] lines = this.lines;
+            if (depth > functions.length || depth > lines.length) { return false; }
+            key.append(root);
+            if (lines[0] > 0) { key.append(':').append(lines[0]); }
+            for (int i = 1; i < depth; i++) {
+                if (functions[i] == null) { return false; }
+                key.append(';').append(functions[i].name.lexeme).append(':').append(lines[i]);
+            }
+            return true;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.example.lox;
 
+import java.util.ArrayList;
 import java.util.Stack;
 import java.util.HashMap;
 import java.util.List;
@@ -7,8 +8,15 @@ import java.util.Map;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    private Frame currentFrame = new Frame();
+    // Index of the outermost scope belonging to the pure function being resolved, or -1. Anything
+    // declared further out may change between calls, so it can only be called, never read or written.
+    private int pureBase = -1;
+    private Expr callee;
+    // Off with --no-opt=slots: every local then lives in an Environment, captured or not.
+    boolean frameSlots = true;
 
     Resolver(Interpreter interpreter) {
         this.interpreter = interpreter;
@@ -16,9 +24,56 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private enum FunctionType {
         NONE,
-        FUNCTION
+        FUNCTION,
+        GENERATOR
     };
 
+    // Slot allocation for one function invocation, or for top-level code.
+    private static class Frame {
+        int nextSlot = 0;
+        int size = 0;
+    }
+
+    private static class Local {
+        final int slot;
+        final Stmt declaration;
+        boolean defined = false;
+        // Referenced from a function nested inside the one declaring it, so it has to live in a
+        // heap Environment that the closure can hold on to instead of in a frame slot.
+        boolean captured = false;
+        final List<Use> uses = new ArrayList<>();
+
+        Local(int slot, Stmt declaration) {
+            this.slot = slot;
+            this.declaration = declaration;
+        }
+    }
+
+    private static class Use {
+        final Expr expr;
+        final Scope scope;
+
+        Use(Expr expr, Scope scope) {
+            this.expr = expr;
+            this.scope = scope;
+        }
+    }
+
+    private static class Scope {
+        final Scope enclosing;
+        final Frame frame;
+        final int firstSlot;
+        final Map<String, Local> locals = new HashMap<>();
+        // Only scopes declaring a captured variable get an Environment at runtime.
+        boolean captures = false;
+
+        Scope(Scope enclosing, Frame frame) {
+            this.enclosing = enclosing;
+            this.frame = frame;
+            this.firstSlot = frame.nextSlot;
+        }
+    }
+
     void resolve(List<Stmt> statements) {
         for(Stmt stmt: statements) {
             resolve(stmt);
@@ -28,7 +83,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        if (resolveLocal(expr, expr.name) < pureBase) {
+            Lox.error(expr.name.line, "Can't assign to '" + expr.name.lexeme + "' from a pure function.");
+        }
         return null;
     }
 
@@ -41,10 +98,25 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitCallExpr(Expr.Call expr) {
+        Expr enclosingCallee = callee;
+        callee = expr.callee;
         resolve(expr.callee);
+        callee = enclosingCallee;
         for (Expr argument: expr.arguments) {
             resolve(argument);
         }
+
+        // A native the global still holds now can be called directly, guarded on the global
+        // holding it when the call runs.
+        if (expr.callee instanceof Expr.Variable && ((Expr.Variable) expr.callee).cell != null) {
+            GlobalCell cell = ((Expr.Variable) expr.callee).cell;
+            if (cell.get() instanceof NativeFunction) {
+                NativeFunction function = (NativeFunction) cell.get();
+                if (function.arity() == expr.arguments.size() && (pureBase < 0 || function.pure())) {
+                    expr.intrinsic = function;
+                }
+            }
+        }
         return null;
     }
 
@@ -54,11 +126,51 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        resolve(expr.call);
+        if (!expr.bound) {
+            resolve(expr.body);
+            return null;
+        }
+
+        // A bound body reads its parameters from slots of the frame it is inlined into. It makes no
+        // closures, so they are never captured, and they need slots even with frameSlots off.
+        boolean enclosingSlots = frameSlots;
+        frameSlots = true;
+        beginScope();
+        for (Token param: expr.function.params) {
+            declare(param, null);
+            define(param);
+        }
+        frameSlots = enclosingSlots;
+        resolve(expr.body);
+        Scope scope = scopes.peek();
+        expr.paramSlots = new int[expr.function.params.size()];
+        for (int i = 0; i < expr.paramSlots.length; i++) {
+            expr.paramSlots[i] = scope.locals.get(expr.function.params.get(i).lexeme).slot;
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
         return null;
     }
 
+    @Override
+    public Void visitProbeExpr(Expr.Probe expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
     @Override
     public Void visitLogicalExpr(Expr.Logical expr) {
         resolve(expr.left);
@@ -66,6 +178,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        if (pureBase >= 0) {
+            Lox.error(expr.name.line, "Can't set properties in a pure function.");
+        }
+        resolve(expr.object);
+        return null;
+    }
+
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
@@ -74,33 +195,59 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name.line, "Can't read local variable in it's own initializer.");
+        if(!scopes.isEmpty()) {
+            Local local = scopes.peek().locals.get(expr.name.lexeme);
+            if (local != null && !local.defined) {
+                Lox.error(expr.name.line, "Can't read local variable in it's own initializer.");
+            }
+        }
+        if (resolveLocal(expr, expr.name) < pureBase && expr != callee) {
+            Lox.error(expr.name.line, "A pure function can only call '" + expr.name.lexeme + "', not read it.");
         }
-        resolveLocal(expr, expr.name);
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        for(int i=scopes.size()-1; i>=0; i++) {
-            if(scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+    // Where the variable lives depends on whether a closure captures it, which may only become
+    // known later in the scope, so the use is recorded and annotated when the scope ends. Returns the
+    // index of the declaring scope, or -1 for a global.
+    private int resolveLocal(Expr expr, Token name) {
+        for(int i=scopes.size()-1; i>=0; i--) {
+            Scope scope = scopes.get(i);
+            Local local = scope.locals.get(name.lexeme);
+            if(local != null) {
+                if (scope.frame != currentFrame) {
+                    local.captured = true;
+                    scope.captures = true;
+                }
+                local.uses.add(new Use(expr, scopes.peek()));
+                return i;
             }
         }
+
+        GlobalCell cell = interpreter.globals.cell(name.lexeme);
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable) expr).cell = cell;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign) expr).cell = cell;
+        }
+        return -1;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        stmt.captures = endScope();
         return null;
     }
 
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
-        declare(stmt.name);
+        Local local = declare(stmt.name, stmt);
+        if (local != null) {
+            local.captured = true;
+            scopes.peek().captures = true;
+        }
         define(stmt.name);
         return null;
     }
@@ -125,8 +272,17 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitProbeStmt(Stmt.Probe stmt) {
+        resolve(stmt.statement);
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
+        if (pureBase >= 0) {
+            Lox.error(stmt.keyword.line, "Can't print in a pure function.");
+        }
         resolve(stmt.expression);
         return null;
     }
@@ -136,13 +292,25 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (currentFunction == FunctionType.NONE) {
             Lox.error(stmt.keyword.line, "Can't return from top-level code.");
         }
+        if (currentFunction == FunctionType.GENERATOR && stmt.value != null) {
+            Lox.error(stmt.keyword.line, "Can't return a value from a generator.");
+        }
         if(stmt.value != null) { resolve(stmt.value); }
         return null;
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            Lox.error(stmt.keyword.line, "Can't yield from top-level code.");
+        }
+        resolve(stmt.value);
+        return null;
+    }
+
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if(stmt.Initializer != null) {
             resolve(stmt.Initializer);
         }
@@ -150,20 +318,38 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void declare(Token name) {
-        if(scopes.isEmpty()) { return; }
+    private Local declare(Token name, Stmt declaration) {
+        if(scopes.isEmpty()) {
+            GlobalCell cell = interpreter.globals.cell(name.lexeme);
+            if (declaration instanceof Stmt.Var) {
+                ((Stmt.Var) declaration).cell = cell;
+            } else if (declaration instanceof Stmt.Function) {
+                ((Stmt.Function) declaration).cell = cell;
+            } else if (declaration instanceof Stmt.Class) {
+                ((Stmt.Class) declaration).cell = cell;
+            }
+            return null;
+        }
 
-        Map<String, Boolean> scope = scopes.peek();
-        if(scope.containsKey(name.lexeme)) {
+        Scope scope = scopes.peek();
+        if(scope.locals.containsKey(name.lexeme)) {
             Lox.error(name.line, "Already a variable by this name in this scope.");
         }
 
-        scope.put(name.lexeme, false);
+        Frame frame = scope.frame;
+        Local local = new Local(frame.nextSlot++, declaration);
+        frame.size = Math.max(frame.size, frame.nextSlot);
+        scope.locals.put(name.lexeme, local);
+        if (!frameSlots) {
+            local.captured = true;
+            scope.captures = true;
+        }
+        return local;
     }
 
     private void define(Token name) {
         if(scopes.isEmpty()) { return; }
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().locals.get(name.lexeme).defined = true;
     }
 
     @Override
@@ -173,26 +359,51 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitCountedLoopStmt(Stmt.CountedLoop stmt) {
+        resolve(stmt.loop);
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
-        resolveFunction(stmt, FunctionType.FUNCTION);
+        if (stmt.pure && stmt.generator) {
+            Lox.error(stmt.name.line, "A generator can't be pure.");
+        }
+        resolveFunction(stmt, stmt.generator ? FunctionType.GENERATOR : FunctionType.FUNCTION);
         return null;
     }
 
     private void resolveFunction(Stmt.Function stmt, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
+        Frame enclosingFrame = currentFrame;
+        int enclosingPureBase = pureBase;
         currentFunction = type;
+        currentFrame = new Frame();
+        if (stmt.pure) { pureBase = scopes.size(); }
+
         beginScope();
         for (Token param: stmt.params) {
-            declare(param);
+            declare(param, null);
             define(param);
         }
 
         resolve(stmt.body);
-        endScope();
+
+        Scope scope = scopes.peek();
+        stmt.paramSlots = new int[stmt.params.size()];
+        for (int i = 0; i < stmt.params.size(); i++) {
+            Local local = scope.locals.get(stmt.params.get(i).lexeme);
+            stmt.paramSlots[i] = local.captured ? -1 : local.slot;
+        }
+        stmt.captures = endScope();
+        stmt.frameSize = currentFrame.size;
+
+        pureBase = enclosingPureBase;
+        currentFrame = enclosingFrame;
         currentFunction = enclosingFunction;
     }
 
@@ -205,10 +416,44 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        Scope enclosing = scopes.isEmpty() ? null : scopes.peek();
+        scopes.push(new Scope(enclosing, currentFrame));
+    }
+
+    // Every scope between a use and the declaration is closed by now, so it's known which of them
+    // get an Environment and the hop count for captured variables can be worked out.
+    private boolean endScope() {
+        Scope scope = scopes.pop();
+        for (Local local: scope.locals.values()) {
+            for (Use use: local.uses) {
+                int depth = 0;
+                for (Scope s = use.scope; s != scope; s = s.enclosing) {
+                    if (s.captures) { depth++; }
+                }
+                annotate(use.expr, local.captured ? -1 : local.slot, local.captured ? depth : -1);
+            }
+
+            int slot = local.captured ? -1 : local.slot;
+            if (local.declaration instanceof Stmt.Var) {
+                ((Stmt.Var) local.declaration).slot = slot;
+            } else if (local.declaration instanceof Stmt.Function) {
+                ((Stmt.Function) local.declaration).slot = slot;
+            }
+        }
+
+        // Non-captured slots are free again once the scope ends, like a stack.
+        scope.frame.nextSlot = scope.firstSlot;
+        if (scopes.isEmpty()) { interpreter.reserveSlots(scope.frame.size); }
+        return scope.captures;
     }
 
-    private void endScope() {
-        scopes.pop();
+    private void annotate(Expr expr, int slot, int depth) {
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable) expr).slot = slot;
+            ((Expr.Variable) expr).depth = depth;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign) expr).slot = slot;
+            ((Expr.Assign) expr).depth = depth;
+        }
     }
 }
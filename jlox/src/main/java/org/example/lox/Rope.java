@@ -0,0 +1,102 @@
+package org.example.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// A string built by concatenation, kept as a tree of its pieces until something needs the
+// characters. Building a string in a loop then costs one node per step instead of a full copy.
+// Pieces are either plain Java strings (literals) or other ropes.
+final class Rope implements CharSequence {
+    // Below this length the copy is cheaper than the node, so concat just joins the strings.
+    private static final int FLAT_LIMIT = 64;
+
+    // Volatile since parallel workers may flatten the same rope at once. flat is written before
+    // the children are dropped, so whoever finds them gone can read it.
+    private volatile CharSequence left;
+    private volatile CharSequence right;
+    private final int length;
+    private volatile String flat;
+    private int hash;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.length() == 0) { return right; }
+        if (right.length() == 0) { return left; }
+        if (left.length() + right.length() < FLAT_LIMIT) {
+            return left.toString() + right.toString();
+        }
+        return new Rope(left, right);
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    // Walks the tree with an explicit stack, since a rope built in a loop is as deep as the loop
+    // ran. The children are dropped afterwards so the pieces can be collected.
+    @Override
+    public String toString() {
+        String flat = this.flat;
+        if (flat != null) { return flat; }
+
+        StringBuilder builder = new StringBuilder(length);
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence piece = pending.pop();
+            if (piece instanceof Rope && ((Rope) piece).flat == null) {
+                Rope rope = (Rope) piece;
+                CharSequence left = rope.left, right = rope.right;
+                if (left == null || right == null) {
+                    builder.append(rope.flat);
+                    continue;
+                }
+                pending.push(right);
+                pending.push(left);
+            } else {
+                builder.append(piece.toString());
+            }
+        }
+
+        flat = builder.toString();
+        this.flat = flat;
+        left = null;
+        right = null;
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if (!isString(other)) { return false; }
+        CharSequence that = (CharSequence) other;
+        return length == that.length() && toString().equals(that.toString());
+    }
+
+    // Same as String's, so a rope and a plain string with the same characters hash alike.
+    @Override
+    public int hashCode() {
+        if (hash == 0) { hash = toString().hashCode(); }
+        return hash;
+    }
+}
@@ -6,5 +6,12 @@ public class RuntimeError extends RuntimeException {
     RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+
+        LoxEvents.Failure event = new LoxEvents.Failure();
+        if (event.shouldCommit()) {
+            event.message = message;
+            event.line = token.line;
+            event.commit();
+        }
     }
 }
@@ -7,6 +7,7 @@ import java.util.Map;
 
 public class Scanner {
     private final String source;
+    private final StringTable strings;
     private final List<Token> tokens = new ArrayList<Token>();
 
     private int current = 0;
@@ -27,16 +28,19 @@ public class Scanner {
         keywords.put("nil",    TokenType.NIL);
         keywords.put("or",     TokenType.OR);
         keywords.put("print",  TokenType.PRINT);
+        keywords.put("pure",   TokenType.PURE);
         keywords.put("return", TokenType.RETURN);
         keywords.put("super",  TokenType.SUPER);
         keywords.put("this",   TokenType.THIS);
         keywords.put("true",   TokenType.TRUE);
         keywords.put("var",    TokenType.VAR);
         keywords.put("while",  TokenType.WHILE);
+        keywords.put("yield",  TokenType.YIELD);
     }
 
-    Scanner (String source) {
+    Scanner (String source, StringTable strings) {
         this.source = source;
+        this.strings = strings;
     }
 
     List<Token> scanTokens() {
@@ -109,7 +113,7 @@ public class Scanner {
         }
 
         advance();
-        String value = source.substring(start+1, current-1);
+        String value = strings.intern(source.substring(start+1, current-1));
         addToken(TokenType.STRING, value);
     }
 
@@ -128,7 +132,10 @@ public class Scanner {
 
         String text = source.substring(start, current);
         TokenType type = keywords.get(text);
-        if (type == null) { type = TokenType.IDENTIFIER; }
+        if (type == null) {
+            tokens.add(new Token(TokenType.IDENTIFIER, strings.intern(text), null, line));
+            return;
+        }
 
         addToken(type);
     }
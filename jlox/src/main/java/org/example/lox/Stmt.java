@@ -8,10 +8,13 @@ abstract class Stmt {
 		R visitExpressionStmt (Expression stmt);
 		R visitIfStmt (If stmt);
 		R visitPrintStmt (Print stmt);
+		R visitProbeStmt (Probe stmt);
 		R visitReturnStmt (Return stmt);
+		R visitYieldStmt (Yield stmt);
 		R visitClassStmt (Class stmt);
 		R visitVarStmt (Var stmt);
 		R visitWhileStmt (While stmt);
+		R visitCountedLoopStmt (CountedLoop stmt);
 		R visitFunctionStmt (Function stmt);
 	}
 	static class Block extends Stmt {
@@ -20,6 +23,7 @@ abstract class Stmt {
 		}
 
 		final List<Stmt> statements;
+		boolean captures;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
@@ -58,10 +62,12 @@ abstract class Stmt {
 	}
 
 	static class Print extends Stmt {
-		Print (Expr expression) { 
+		Print (Token keyword, Expr expression) { 
+			this.keyword = keyword;
 			this.expression = expression;
 		}
 
+		final Token keyword;
 		final Expr expression;
 
 		@Override
@@ -70,6 +76,21 @@ abstract class Stmt {
 		}
 	}
 
+	static class Probe extends Stmt {
+		Probe (Stmt statement, Hotspots.Node node) { 
+			this.statement = statement;
+			this.node = node;
+		}
+
+		final Stmt statement;
+		final Hotspots.Node node;
+
+		@Override
+		<R> R accept (Visitor<R> visitor) {
+			return visitor.visitProbeStmt(this);
+		}
+	}
+
 	static class Return extends Stmt {
 		Return (Token keyword, Expr value) { 
 			this.keyword = keyword;
@@ -85,6 +106,21 @@ abstract class Stmt {
 		}
 	}
 
+	static class Yield extends Stmt {
+		Yield (Token keyword, Expr value) { 
+			this.keyword = keyword;
+			this.value = value;
+		}
+
+		final Token keyword;
+		final Expr value;
+
+		@Override
+		<R> R accept (Visitor<R> visitor) {
+			return visitor.visitYieldStmt(this);
+		}
+	}
+
 	static class Class extends Stmt {
 		Class (Token name, List<Stmt.Function> methods) { 
 			this.name = name;
@@ -93,6 +129,7 @@ abstract class Stmt {
 
 		final Token name;
 		final List<Stmt.Function> methods;
+		GlobalCell cell;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
@@ -108,6 +145,8 @@ abstract class Stmt {
 
 		final Token name;
 		final Expr Initializer;
+		int slot = -1;
+		GlobalCell cell;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
@@ -123,6 +162,8 @@ abstract class Stmt {
 
 		final Expr condition;
 		final Stmt body;
+		int invariants;
+		volatile ClosureCompiler.Action compiled;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
@@ -130,16 +171,50 @@ abstract class Stmt {
 		}
 	}
 
+	static class CountedLoop extends Stmt {
+		CountedLoop (Expr.Variable counter, Token operator, Expr limit, double step, List<Stmt> body, Stmt.While loop) { 
+			this.counter = counter;
+			this.operator = operator;
+			this.limit = limit;
+			this.step = step;
+			this.body = body;
+			this.loop = loop;
+		}
+
+		final Expr.Variable counter;
+		final Token operator;
+		final Expr limit;
+		final double step;
+		final List<Stmt> body;
+		final Stmt.While loop;
+		volatile ClosureCompiler.Action compiled;
+
+		@Override
+		<R> R accept (Visitor<R> visitor) {
+			return visitor.visitCountedLoopStmt(this);
+		}
+	}
+
 	static class Function extends Stmt {
-		Function (Token name, List<Token> params, List<Stmt> body) { 
+		Function (Token name, List<Token> params, List<Stmt> body, boolean pure, boolean generator) { 
 			this.name = name;
 			this.params = params;
 			this.body = body;
+			this.pure = pure;
+			this.generator = generator;
 		}
 
 		final Token name;
 		final List<Token> params;
 		final List<Stmt> body;
+		final boolean pure;
+		final boolean generator;
+		int slot = -1;
+		int[] paramSlots;
+		int frameSize;
+		boolean captures;
+		GlobalCell cell;
+		volatile ClosureCompiler.Action compiled;
 
 		@Override
 		<R> R accept (Visitor<R> visitor) {
@@ -0,0 +1,28 @@
+package org.example.lox;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Canonical copies of the strings a program is made of. Literals and identifiers are interned as
+// they are scanned, so equal names and literal values are the same object and compare by identity.
+// Parallel workers intern into the same table.
+class StringTable {
+    // Longer runtime strings are rarely used as names or keys, and interning them would keep every
+    // intermediate step of a string built in a loop alive. Same cut-off as Lua's short strings.
+    private static final int MAX_DYNAMIC_LENGTH = 40;
+
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+    // Also intern short strings built at runtime. Off by default, since each distinct one is kept
+    // alive for as long as the program runs.
+    boolean internDynamic = false;
+
+    String intern(String string) {
+        String interned = strings.putIfAbsent(string, string);
+        return interned == null ? string : interned;
+    }
+
+    Object dynamic(CharSequence string) {
+        if (!internDynamic || string.length() > MAX_DYNAMIC_LENGTH) { return string; }
+        return intern(string.toString());
+    }
+}
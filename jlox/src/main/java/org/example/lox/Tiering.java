@@ -0,0 +1,62 @@
+package org.example.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// Policy for moving code out of the tree-walker. A closure is promoted once its calls plus the
+// loop iterations it ran cross the threshold. The compiled body is kept on the declaration, so
+// every other closure over the same declaration uses it from then on. A single loop running that
+// many iterations is compiled on its own and replaced while it runs, which is what gets long
+// loops in top-level code or in a function called only once out of the tree-walker. Threads
+// crossing the threshold together may both compile, but only the first to publish promotes.
+class Tiering {
+    static final int DEFAULT_THRESHOLD = 1000;
+
+    private static final VarHandle FUNCTION;
+    private static final VarHandle WHILE;
+    private static final VarHandle COUNTED_LOOP;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            FUNCTION = lookup.findVarHandle(Stmt.Function.class, "compiled", ClosureCompiler.Action.class);
+            WHILE = lookup.findVarHandle(Stmt.While.class, "compiled", ClosureCompiler.Action.class);
+            COUNTED_LOOP = lookup.findVarHandle(Stmt.CountedLoop.class, "compiled", ClosureCompiler.Action.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    int threshold = DEFAULT_THRESHOLD;
+    boolean log = false;
+    private final ClosureCompiler compiler = new ClosureCompiler();
+
+    void promote(LoxFunction function) {
+        Stmt.Function declaration = function.declaration;
+        if (!FUNCTION.compareAndSet(declaration, null, compiler.compile(declaration))) { return; }
+        Metrics.FUNCTIONS_PROMOTED.increment();
+        if (log) {
+            System.err.println("[tier] " + declaration.name.lexeme + " (line " + declaration.name.line
+                    + ") promoted to closures after " + function.calls + " calls, "
+                    + function.backEdges + " back-edges");
+        }
+    }
+
+    ClosureCompiler.Action replace(Stmt loop, LoxFunction function, int backEdges) {
+        ClosureCompiler.Action compiled = compiler.compileLoop(loop);
+        ClosureCompiler.Action published = null;
+        if (loop instanceof Stmt.While) {
+            published = (ClosureCompiler.Action) WHILE.compareAndExchange((Stmt.While) loop, null, compiled);
+        } else if (loop instanceof Stmt.CountedLoop) {
+            published = (ClosureCompiler.Action) COUNTED_LOOP.compareAndExchange((Stmt.CountedLoop) loop, null, compiled);
+        }
+        if (published != null) { return published; }
+        Metrics.LOOPS_REPLACED.increment();
+        if (log) {
+            String where = function == null ? "top-level code" : function.declaration.name.lexeme;
+            System.err.println("[tier] loop in " + where + " replaced on stack after "
+                    + backEdges + " back-edges");
+        }
+        return compiled;
+    }
+}
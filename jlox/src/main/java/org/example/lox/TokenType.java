@@ -16,7 +16,7 @@ public enum TokenType {
 
     // Keywords.
     AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-    PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+    PRINT, PURE, RETURN, SUPER, THIS, TRUE, VAR, WHILE, YIELD,
 
     EOF
 }
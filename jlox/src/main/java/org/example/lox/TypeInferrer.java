@@ -0,0 +1,318 @@
+package org.example.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+// Flow-sensitive inference of local variable types. Binary nodes whose operands are proven to be
+// numbers or strings get annotated so the interpreter can skip its operand checks. Anything that
+// isn't a local of the function being analysed (globals, captured variables, call results) is UNKNOWN.
+public class TypeInferrer implements Expr.Visitor<LoxType>, Stmt.Visitor<Void> {
+    private static class Local {
+        // Assigned from a nested function, so its type can change behind our back.
+        boolean pinned = false;
+    }
+
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
+    private Map<Local, LoxType> types = new HashMap<>();
+    private int functionBase = 0;
+    private int pins = 0;
+
+    void infer(List<Stmt> statements) {
+        for (Stmt stmt: statements) {
+            infer(stmt);
+        }
+    }
+
+    private void infer(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private LoxType infer(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public LoxType visitAssignExpr(Expr.Assign expr) {
+        LoxType type = infer(expr.value);
+
+        int scope = lookUp(expr.name);
+        if (scope < 0) { return type; }
+        Local local = scopes.get(scope).get(expr.name.lexeme);
+        if (scope < functionBase) {
+            if (!local.pinned) { pins++; }
+            local.pinned = true;
+        } else {
+            types.put(local, type);
+        }
+        return type;
+    }
+
+    @Override
+    public LoxType visitBinaryExpr(Expr.Binary expr) {
+        LoxType left = infer(expr.left);
+        LoxType right = infer(expr.right);
+
+        expr.operands = null;
+        if (left == LoxType.NUMBER && right == LoxType.NUMBER) {
+            expr.operands = LoxType.NUMBER;
+        } else if (expr.operator.type == TokenType.PLUS && left == LoxType.STRING && right == LoxType.STRING) {
+            expr.operands = LoxType.STRING;
+        }
+
+        switch (expr.operator.type) {
+            case TokenType.MINUS:
+            case TokenType.STAR:
+            case TokenType.SLASH:
+                return LoxType.NUMBER;
+            case TokenType.PLUS:
+                return expr.operands == null ? LoxType.UNKNOWN : expr.operands;
+            default:
+                return LoxType.BOOLEAN;
+        }
+    }
+
+    @Override
+    public LoxType visitCallExpr(Expr.Call expr) {
+        infer(expr.callee);
+        for (Expr argument: expr.arguments) {
+            infer(argument);
+        }
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public LoxType visitGetExpr(Expr.Get expr) {
+        infer(expr.object);
+        return LoxType.UNKNOWN;
+    }
+
+    // The body only runs while the callee is still the inlined function, otherwise the call does.
+    // The parameters of a bound body hold the arguments.
+    @Override
+    public LoxType visitInlineExpr(Expr.Inline expr) {
+        infer(expr.call);
+        if (!expr.bound) {
+            infer(expr.body);
+            return LoxType.UNKNOWN;
+        }
+        beginScope();
+        for (int i = 0; i < expr.function.params.size(); i++) {
+            declare(expr.function.params.get(i), infer(expr.call.arguments.get(i)));
+        }
+        infer(expr.body);
+        endScope();
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitInvariantExpr(Expr.Invariant expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public LoxType visitLiteralExpr(Expr.Literal expr) {
+        return LoxType.of(expr.value);
+    }
+
+    @Override
+    public LoxType visitProbeExpr(Expr.Probe expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public LoxType visitLogicalExpr(Expr.Logical expr) {
+        LoxType left = infer(expr.left);
+
+        Map<Local, LoxType> skipped = new HashMap<>(types);
+        LoxType right = infer(expr.right);
+        types = join(skipped, types);
+
+        return left.join(right);
+    }
+
+    @Override
+    public LoxType visitSetExpr(Expr.Set expr) {
+        infer(expr.object);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitUnaryExpr(Expr.Unary expr) {
+        infer(expr.right);
+        return expr.operator.type == TokenType.MINUS ? LoxType.NUMBER : LoxType.BOOLEAN;
+    }
+
+    @Override
+    public LoxType visitVariableExpr(Expr.Variable expr) {
+        int scope = lookUp(expr.name);
+        if (scope < functionBase) { return LoxType.UNKNOWN; }
+        return typeOf(scopes.get(scope).get(expr.name.lexeme));
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        infer(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.condition);
+
+        Map<Local, LoxType> before = new HashMap<>(types);
+        infer(stmt.thenBranch);
+        Map<Local, LoxType> afterThen = types;
+
+        types = before;
+        if (stmt.elseBranch != null) { infer(stmt.elseBranch); }
+        types = join(afterThen, types);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe stmt) {
+        infer(stmt.statement);
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        infer(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) { infer(stmt.value); }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name, LoxType.UNKNOWN);
+        for (Stmt.Function method: stmt.methods) {
+            inferFunction(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        LoxType type = LoxType.NIL;
+        if (stmt.Initializer != null) { type = infer(stmt.Initializer); }
+        declare(stmt.name, type);
+        return null;
+    }
+
+    // Iterates to a fixpoint so that the annotations left behind by the last pass over the body
+    // hold for every iteration, not just the first.
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        while (true) {
+            Map<Local, LoxType> head = new HashMap<>(types);
+            int pinsBefore = pins;
+
+            infer(stmt.condition);
+            Map<Local, LoxType> exit = new HashMap<>(types);
+            infer(stmt.body);
+
+            Map<Local, LoxType> joined = join(head, types);
+            if (joined.equals(head) && pins == pinsBefore) {
+                types = exit;
+                return null;
+            }
+            types = joined;
+        }
+    }
+
+    // Shares its nodes with the fallback loop, so annotating that covers both.
+    @Override
+    public Void visitCountedLoopStmt(Stmt.CountedLoop stmt) {
+        infer(stmt.loop);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name, LoxType.UNKNOWN);
+        inferFunction(stmt);
+        return null;
+    }
+
+    // The body may run at any later point, so nothing known about the enclosing locals carries over.
+    private void inferFunction(Stmt.Function function) {
+        Map<Local, LoxType> enclosingTypes = types;
+        int enclosingBase = functionBase;
+        types = new HashMap<>();
+        functionBase = scopes.size();
+
+        beginScope();
+        for (Token param: function.params) {
+            declare(param, LoxType.UNKNOWN);
+        }
+        infer(function.body);
+        endScope();
+
+        functionBase = enclosingBase;
+        types = enclosingTypes;
+    }
+
+    private void declare(Token name, LoxType type) {
+        if (scopes.isEmpty()) { return; }
+        Local local = new Local();
+        scopes.peek().put(name.lexeme, local);
+        types.put(local, type);
+    }
+
+    private int lookUp(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            if (scopes.get(i).containsKey(name.lexeme)) { return i; }
+        }
+        return -1;
+    }
+
+    private LoxType typeOf(Local local) {
+        if (local.pinned) { return LoxType.UNKNOWN; }
+        return types.getOrDefault(local, LoxType.UNKNOWN);
+    }
+
+    private Map<Local, LoxType> join(Map<Local, LoxType> a, Map<Local, LoxType> b) {
+        Map<Local, LoxType> joined = new HashMap<>();
+        for (Map.Entry<Local, LoxType> entry: a.entrySet()) {
+            LoxType other = b.get(entry.getKey());
+            if (other != null) { joined.put(entry.getKey(), entry.getValue().join(other)); }
+        }
+        return joined;
+    }
+
+    private void beginScope() {
+        scopes.push(new HashMap<>());
+    }
+
+    private void endScope() {
+        for (Local local: scopes.pop().values()) {
+            types.remove(local);
+        }
+    }
+}
@@ -14,27 +14,33 @@ class GenerateAST {
         String outDir = args[0];
         try {
             defineAST(outDir, "Expr", Arrays.asList(
-                    "Assign   : Token name, Expr value",
-                    "Binary   : Expr left, Token operator, Expr right",
-                    "Call     : Expr callee, Token paren, List<Expr> arguments",
+                    "Assign   : Token name, Expr value | int depth = -1, int slot = -1, GlobalCell cell",
+                    "Binary   : Expr left, Token operator, Expr right | LoxType operands",
+                    "Call     : Expr callee, Token paren, List<Expr> arguments | NativeFunction intrinsic, JavaSite java",
                     "Grouping : Expr expression",
-                    "Get      : Expr object, Token name",
+                    "Get      : Expr object, Token name | JavaSite java",
+                    "Inline   : Expr.Call call, Stmt.Function function, Expr body, boolean bound | int[] paramSlots",
+                    "Invariant: Expr expression, int slot",
                     "Literal  : Object value",
+                    "Probe    : Expr expression, Hotspots.Node node",
                     "Logical  : Expr left, Token operator, Expr right",
                     "Set      : Expr object, Token name, Token value",
                     "Unary    : Token operator, Expr right",
-                    "Variable : Token name"
+                    "Variable : Token name | int depth = -1, int slot = -1, GlobalCell cell"
             ));
             defineAST(outDir, "Stmt", Arrays.asList(
-                    "Block     : List<Stmt> statements",
+                    "Block     : List<Stmt> statements | boolean captures",
                     "Expression: Expr expression",
                     "If        : Expr condition, Stmt thenBranch, Stmt elseBranch",
-                    "Print     : Expr expression",
+                    "Print     : Token keyword, Expr expression",
+                    "Probe     : Stmt statement, Hotspots.Node node",
                     "Return    : Token keyword, Expr value",
-                    "Class     : Token name, List<Stmt.Function> methods",
-                    "Var       : Token name, Expr Initializer",
-                    "While     : Expr condition, Stmt body",
-                    "Function  : Token name, List<Token> params, List<Stmt> body"
+                    "Yield     : Token keyword, Expr value",
+                    "Class     : Token name, List<Stmt.Function> methods | GlobalCell cell",
+                    "Var       : Token name, Expr Initializer | int slot = -1, GlobalCell cell",
+                    "While     : Expr condition, Stmt body | int invariants, volatile ClosureCompiler.Action compiled",
+                    "CountedLoop : Expr.Variable counter, Token operator, Expr limit, double step, List<Stmt> body, Stmt.While loop | volatile ClosureCompiler.Action compiled",
+                    "Function  : Token name, List<Token> params, List<Stmt> body, boolean pure, boolean generator | int slot = -1, int[] paramSlots, int frameSize, boolean captures, GlobalCell cell, volatile ClosureCompiler.Action compiled"
             ));
         } catch (IOException e) {
             e.printStackTrace();
@@ -65,7 +71,14 @@ class GenerateAST {
         pw.close();
     }
 
+    // Fields after a '|' are annotations filled in by later passes, so they are mutable and left out of the constructor.
     private static void defineType(PrintWriter pw, String baseName, String typeName, String fields) {
+        String annotations = null;
+        if (fields.contains("|")) {
+            annotations = fields.split("\\|")[1].trim();
+            fields = fields.split("\\|")[0].trim();
+        }
+
         pw.println("\tstatic class " + typeName + " extends " + baseName + " {");
         pw.println("\t\t" + typeName + " (" + fields + ") { ");
 
@@ -81,6 +94,11 @@ class GenerateAST {
             String name = field.trim();
             pw.println("\t\tfinal " + name + ";");
         }
+        if (annotations != null) {
+            for (String annotation: annotations.split(", ")) {
+                pw.println("\t\t" + annotation.trim() + ";");
+            }
+        }
 
         pw.println();
         pw.println("\t\t@Override");
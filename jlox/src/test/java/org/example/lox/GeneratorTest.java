@@ -0,0 +1,90 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class GeneratorTest {
+    private static final String RANGE = "fun range(n) { for (var i = 0; i < n; i = i + 1) { yield i; } }\n";
+
+    private static void assertError(String message, String source) {
+        ScriptException error = assertThrows(ScriptException.class, () -> Scripts.run(source));
+        assertTrue(error.getMessage().contains(message), error.getMessage());
+    }
+
+    // The body only starts at the first hasNext, and runs no further than the next yield.
+    @Test
+    void runsTheBodyOnlyWhenAskedFor() throws Exception {
+        String source = ""
+                + "fun steps() { print \"start\"; yield 1; print \"middle\"; yield 2; print \"end\"; }\n"
+                + "var g = steps();\n"
+                + "print \"made\";\n"
+                + "print next(g);\n"
+                + "print hasNext(g);\n"
+                + "print next(g);\n"
+                + "print hasNext(g);\n";
+        assertEquals("made\nstart\n1\nmiddle\ntrue\n2\nend\nfalse\n", Scripts.run(source));
+    }
+
+    @Test
+    void yieldsTheSameInTheCompiledTier() throws Exception {
+        String source = RANGE
+                + "var total = 0;\n"
+                + "for (var round = 0; round < 3; round = round + 1) {\n"
+                + "    var g = range(5);\n"
+                + "    while (hasNext(g)) { total = total + next(g); }\n"
+                + "}\n"
+                + "print total;\n";
+        assertEquals("30\n", Scripts.compileAndRun(source, interpreter -> {}, optimizer -> {}));
+        assertEquals("30\n", Scripts.compileAndRun(source, interpreter -> interpreter.tiering.threshold = 1,
+                optimizer -> {}));
+    }
+
+    @Test
+    void staysExhausted() throws Exception {
+        String source = RANGE
+                + "var g = range(1);\n"
+                + "print next(g);\n"
+                + "print hasNext(g);\n"
+                + "print hasNext(g);\n";
+        assertEquals("0\nfalse\nfalse\n", Scripts.run(source));
+        assertError("The generator has no more values.", RANGE + "var g = range(1);\nnext(g);\nnext(g);\n");
+    }
+
+    // The error comes out of the hasNext or next that ran the body into it, with the body's line.
+    @Test
+    void raisesErrorsFromTheBody() throws Exception {
+        String source = ""
+                + "fun broken() {\n"
+                + "    yield 1;\n"
+                + "    yield 2 - \"a\";\n"
+                + "}\n"
+                + "var g = broken();\n"
+                + "print next(g);\n"
+                + "next(g);\n";
+        ScriptException error = assertThrows(ScriptException.class, () -> Scripts.run(source));
+        assertTrue(error.getMessage().contains("Operands must be"), error.getMessage());
+        assertEquals(3, error.getLineNumber());
+    }
+
+    // Not just Lox errors: the caller gets control back whatever the body stopped with.
+    @Test
+    void raisesStackOverflowsInsteadOfHanging() {
+        String source = ""
+                + "fun deep(n) { return deep(n + 1) + 1; }\n"
+                + "fun g() { yield deep(0); }\n"
+                + "hasNext(g());\n";
+        assertThrows(StackOverflowError.class, () -> Scripts.run(source));
+    }
+
+    @Test
+    void rejectsMisusedYields() {
+        assertError("Can't yield from top-level code.", "yield 1;\n");
+        assertError("Can't return a value from a generator.", "fun g() { yield 1; return 2; }\n");
+        assertError("A generator can't be pure.", "pure fun g() { yield 1; }\n");
+        assertError("must be a generator", "next(1);\n");
+    }
+}
@@ -0,0 +1,44 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class GlobalCellTest {
+    @Test
+    void tellsNilFromUndefined() {
+        GlobalCell cell = new GlobalCell("g", 0);
+        assertSame(GlobalCell.UNDEFINED, cell.get());
+        assertFalse(cell.defined());
+
+        cell.define(null);
+        assertTrue(cell.defined());
+        assertNull(cell.get());
+
+        cell.undefine();
+        assertFalse(cell.defined());
+    }
+
+    // A removed binding reads as undefined again in code resolved while it was there.
+    @Test
+    void undefinesThroughTheEngineBindings() throws Exception {
+        LoxScriptEngine engine = new LoxScriptEngine();
+        engine.eval("var g = nil; fun read() { return g; }");
+        assertNull(engine.invokeFunction("read"));
+        assertTrue(engine.getBindings(ScriptContext.ENGINE_SCOPE).containsKey("g"));
+
+        engine.getBindings(ScriptContext.ENGINE_SCOPE).remove("g");
+        ScriptException error = assertThrows(ScriptException.class, () -> engine.invokeFunction("read"));
+        assertTrue(error.getMessage().contains("Undefined variable 'g'"), error.getMessage());
+
+        engine.put("g", 2);
+        assertEquals(2.0, engine.invokeFunction("read"));
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class HotspotsTest {
+    private static final Pattern HEADER = Pattern.compile("\\[hot\\] \\d+\\.\\d ms in (\\d+) nodes, by line:");
+    private static final Pattern LINE = Pattern.compile("\\[hot\\]   line (\\d+): \\d+\\.\\d\\d ms \\(\\d+\\.\\d%\\), (\\d+) runs");
+    private static final Pattern NODE = Pattern.compile("\\[hot\\]   line (\\d+) ([A-Za-z]+): \\d+\\.\\d\\d ms \\(\\d+\\.\\d%\\), (\\d+) runs");
+
+    private static final String SOURCE = ""
+            + "var total = 0;\n"
+            + "fun add(a, b) { return a + b; }\n"
+            + "for (var i = 0; i < 10; i = i + 1) {\n"
+            + "    total = add(total, i);\n"
+            + "}\n"
+            + "print total;\n";
+
+    private static List<String> report(int limit) throws Exception {
+        Hotspots hotspots = new Hotspots(limit);
+        assertEquals("45\n", Scripts.compileAndRun(SOURCE, interpreter -> interpreter.hotspots = hotspots, optimizer -> {}));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        hotspots.report(new PrintStream(out, true));
+        return out.toString().lines().toList();
+    }
+
+    // A header, the hottest lines, then the hottest nodes, each cut to the limit.
+    @Test
+    void reportsLinesThenNodes() throws Exception {
+        List<String> lines = report(3);
+        assertEquals(1 + 3 + 1 + 3, lines.size(), String.join("\n", lines));
+
+        Matcher header = HEADER.matcher(lines.get(0));
+        assertTrue(header.matches(), lines.get(0));
+        assertTrue(Integer.parseInt(header.group(1)) > 3);
+        for (String line: lines.subList(1, 4)) {
+            assertTrue(LINE.matcher(line).matches(), line);
+        }
+        assertEquals("[hot] by node:", lines.get(4));
+        for (String line: lines.subList(5, 8)) {
+            assertTrue(NODE.matcher(line).matches(), line);
+        }
+    }
+
+    // Each line counts as many runs as its busiest node: the loop body ran ten times.
+    @Test
+    void countsRunsPerLine() throws Exception {
+        List<String> lines = report(100);
+        int body = -1;
+        int print = -1;
+        for (String line: lines) {
+            Matcher matcher = LINE.matcher(line);
+            if (!matcher.matches()) { continue; }
+            if (matcher.group(1).equals("4")) { body = Integer.parseInt(matcher.group(2)); }
+            if (matcher.group(1).equals("6")) { print = Integer.parseInt(matcher.group(2)); }
+        }
+        assertEquals(10, body);
+        assertEquals(1, print);
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class InlineTest {
+    // The call reads every argument before the body runs, even one the body would skip.
+    @Test
+    void readsArgumentsTheBodySkips() {
+        String source = ""
+                + "fun f(a, b) { return a and b; }\n"
+                + "print f(false, undefinedVar);\n";
+        ScriptException error = assertThrows(ScriptException.class, () -> Scripts.run(source));
+        assertTrue(error.getMessage().contains("undefinedVar"), error.getMessage());
+    }
+
+    @Test
+    void readsArgumentsLeftToRight() {
+        String source = ""
+                + "fun f(a, b) { return b + a; }\n"
+                + "print f(first, second);\n";
+        ScriptException error = assertThrows(ScriptException.class, () -> Scripts.run(source));
+        assertTrue(error.getMessage().contains("first"), error.getMessage());
+    }
+
+    // Bound parameters shadow the caller's variables of the same name, in both tiers.
+    @Test
+    void bindsArgumentsItCannotSubstitute() throws Exception {
+        String source = ""
+                + "fun swap(a, b) { return b + a; }\n"
+                + "fun square(a) { return a * a; }\n"
+                + "fun either(a, b) { return a or b; }\n"
+                + "fun run(n) {\n"
+                + "    var a = \"a\";\n"
+                + "    var b = 2;\n"
+                + "    return swap(n, b) + square(n) + swap(b, b) + either(nil, n);\n"
+                + "}\n"
+                + "var total = 0;\n"
+                + "for (var i = 0; i < 20000; i = i + 1) { total = total + run(i); }\n"
+                + "print total == 2666866770000;\n"
+                + "print swap(\"x\", \"y\");\n";
+        assertEquals("true\nyx\n", Scripts.run(source));
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class JavaSiteTest {
+    private static final JavaClass MATH = new JavaClass(Math.class);
+
+    // Numbers prefer double, and only go to a narrower type when nothing takes a double.
+    @Test
+    void choosesTheCheapestOverload() {
+        assertEquals(2.5, JavaSite.method("max").call(MATH, new Object[] {1.0, 2.5}));
+        assertEquals(2.0, JavaSite.method("abs").call(MATH, new Object[] {-2.0}));
+
+        StringBuilder builder = new StringBuilder();
+        JavaSite append = JavaSite.method("append");
+        append.call(builder, new Object[] {1.0});
+        append.call(builder, new Object[] {"x"});
+        append.call(builder, new Object[] {true});
+        assertEquals("1.0xtrue", builder.toString());
+
+        assertEquals("b", JavaSite.method("charAt").call("abc", new Object[] {1.0}));
+        assertEquals(1.0, JavaSite.method("indexOf").call("abc", new Object[] {"b"}));
+        assertEquals(1.0, JavaSite.method("indexOf").call("abc", new Object[] {98.0}));
+    }
+
+    @Test
+    void checksNarrowedNumbers() {
+        NativeError error = assertThrows(NativeError.class, () -> JavaSite.method("charAt").call("abc", new Object[] {1.5}));
+        assertEquals("Can't pass 1.5 as a Java int.", error.getMessage());
+        error = assertThrows(NativeError.class, () -> JavaSite.method("max").call(MATH, new Object[] {"a", 1.0}));
+        assertEquals("Java method 'max' can't take (string, number).", error.getMessage());
+        error = assertThrows(NativeError.class, () -> JavaSite.method("missing").call("abc", new Object[0]));
+        assertTrue(error.getMessage().contains("has no public member 'missing'"), error.getMessage());
+    }
+
+    @Test
+    void hitsForTheSameShapes() {
+        JavaSite site = JavaSite.method("max");
+        long hits = Metrics.INLINE_CACHE_HITS.sum();
+        long misses = Metrics.INLINE_CACHE_MISSES.sum();
+
+        site.call(MATH, new Object[] {1.0, 2.0});
+        site.call(MATH, new Object[] {3.0, 4.0});
+        site.call(MATH, new Object[] {5.0, 6.0});
+        assertEquals(hits + 2, Metrics.INLINE_CACHE_HITS.sum());
+        assertEquals(misses + 1, Metrics.INLINE_CACHE_MISSES.sum());
+    }
+
+    // Past four receiver classes the site stops caching, but still calls the right method.
+    @Test
+    void keepsWorkingPastFourShapes() {
+        JavaSite site = JavaSite.method("toString");
+        Object[] receivers = {"a", new StringBuilder("b"), Boolean.TRUE, 'c', new ArrayList<>(), "d"};
+        long misses = Metrics.INLINE_CACHE_MISSES.sum();
+        StringBuilder printed = new StringBuilder();
+        for (Object receiver: receivers) {
+            printed.append(site.call(receiver, new Object[0]));
+        }
+        assertEquals("abtruec[]d", printed.toString());
+        assertEquals(misses + 5, Metrics.INLINE_CACHE_MISSES.sum());
+
+        site.call(new ArrayList<>(), new Object[0]);
+        assertEquals(misses + 6, Metrics.INLINE_CACHE_MISSES.sum());
+    }
+
+    @Test
+    void callsJavaFromScripts() throws Exception {
+        String source = ""
+                + "var M = javaClass(\"java.lang.Math\");\n"
+                + "var total = 0;\n"
+                + "for (var i = 0; i < 5; i = i + 1) { total = total + M.max(i, 2); }\n"
+                + "print total;\n"
+                + "var max = M.max;\n"
+                + "print max(1, 7);\n"
+                + "print M.PI > 3;\n";
+        assertEquals("13\n7\ntrue\n", Scripts.run(source));
+
+        ScriptException error = assertThrows(ScriptException.class, () -> Scripts.run("javaClass(\"java.lang.System\");\n"));
+        assertTrue(error.getMessage().contains("java.lang.System"), error.getMessage());
+    }
+}
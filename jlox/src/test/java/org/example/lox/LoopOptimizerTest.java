@@ -0,0 +1,94 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+// Each script prints the same with invariants hoisted and counted loops formed as without.
+class LoopOptimizerTest {
+    private static void assertSameWithoutLoopOptimizations(String expected, String source) throws ScriptException {
+        assertEquals(expected, Scripts.compileAndRun(source, optimizer -> {}));
+        assertEquals(expected, Scripts.compileAndRun(source, optimizer -> optimizer.disable("loops")));
+    }
+
+    // The second call runs long enough for the loop to be replaced while it runs.
+    @Test
+    void seesCountersAndLimitsChangedInTheBody() throws Exception {
+        String source = ""
+                + "fun skip(n) {\n"
+                + "    var total = 0;\n"
+                + "    for (var i = 0; i < n; i = i + 1) {\n"
+                + "        if (i == 5) { i = i + 3; }\n"
+                + "        total = total + i;\n"
+                + "    }\n"
+                + "    return total;\n"
+                + "}\n"
+                + "fun shrink() {\n"
+                + "    var n = 10;\n"
+                + "    var count = 0;\n"
+                + "    for (var i = 0; i < n; i = i + 1) {\n"
+                + "        if (i == 2) { n = 5; }\n"
+                + "        count = count + 1;\n"
+                + "    }\n"
+                + "    return count;\n"
+                + "}\n"
+                + "fun down() {\n"
+                + "    for (var i = 10; i > 0; i = i - 3) { print i; }\n"
+                + "}\n"
+                + "print skip(20);\n"
+                + "print skip(3000);\n"
+                + "print shrink();\n"
+                + "down();\n";
+        assertSameWithoutLoopOptimizations("172\n4498482\n5\n10\n7\n4\n1\n", source);
+    }
+
+    // Closures made in the body see the per-iteration variable, and the loop's one counter.
+    @Test
+    void keepsClosuresMadeInsideLoops() throws Exception {
+        String source = ""
+                + "fun make() {\n"
+                + "    var made = list();\n"
+                + "    for (var i = 0; i < 3; i = i + 1) {\n"
+                + "        var j = i;\n"
+                + "        fun scaled() { return j * 10; }\n"
+                + "        fun counter() { return i; }\n"
+                + "        append(made, scaled);\n"
+                + "        append(made, counter);\n"
+                + "    }\n"
+                + "    return made;\n"
+                + "}\n"
+                + "var made = make();\n"
+                + "var sum = 0;\n"
+                + "for (var k = 0; k < len(made); k = k + 1) { sum = sum + get(made, k)(); }\n"
+                + "print sum;\n";
+        assertSameWithoutLoopOptimizations("39\n", source);
+    }
+
+    @Test
+    void hoistsOnlyWhatStaysTheSame() throws Exception {
+        String source = ""
+                + "fun shadow() {\n"
+                + "    var a = 2;\n"
+                + "    var b = 3;\n"
+                + "    var c = 1;\n"
+                + "    var total = 0;\n"
+                + "    for (var i = 0; i < 4; i = i + 1) {\n"
+                + "        total = total + a * b;\n"
+                + "        { var a = 10; total = total + a * b; }\n"
+                + "        total = total + c * 2;\n"
+                + "        c = c + 1;\n"
+                + "    }\n"
+                + "    return total;\n"
+                + "}\n"
+                + "var x = 2;\n"
+                + "var acc = 0;\n"
+                + "for (var i = 0; i < 5; i = i + 1) {\n"
+                + "    acc = acc + x + x;\n"
+                + "    if (i == 2) { x = \"changed\"; acc = str(acc); }\n"
+                + "}\n"
+                + "print shadow();\n"
+                + "print acc;\n";
+        assertSameWithoutLoopOptimizations("164\n12changedchangedchangedchanged\n", source);
+    }
+}
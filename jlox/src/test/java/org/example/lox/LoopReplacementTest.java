@@ -0,0 +1,89 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+// Each script prints the same when its loops are replaced with compiled code after a few
+// iterations as when they are never replaced.
+class LoopReplacementTest {
+    private static void assertSameWhenReplaced(String expected, String source) throws ScriptException {
+        long before = Metrics.LOOPS_REPLACED.sum();
+        assertEquals(expected, run(source, 3));
+        assertTrue(Metrics.LOOPS_REPLACED.sum() > before, "no loop was replaced");
+        assertEquals(expected, run(source, Integer.MAX_VALUE));
+    }
+
+    private static String run(String source, int threshold) throws ScriptException {
+        return Scripts.compileAndRun(source, interpreter -> interpreter.tiering.threshold = threshold, optimizer -> {});
+    }
+
+    @Test
+    void replacesTopLevelLoops() throws Exception {
+        String source = ""
+                + "var i = 0;\n"
+                + "var total = 0;\n"
+                + "while (i < 10) { total = total + i; i = i + 1; }\n"
+                + "print total;\n"
+                + "var product = 1;\n"
+                + "for (var j = 1; j <= 10; j = j + 1) { product = product * 2; }\n"
+                + "print product;\n"
+                + "print i;\n";
+        assertSameWhenReplaced("45\n1024\n10\n", source);
+    }
+
+    // The compiled loop carries on from the iteration the tree-walker stopped at.
+    @Test
+    void picksUpTheCountWhereItWasLeft() throws Exception {
+        String source = ""
+                + "fun count() {\n"
+                + "    var seen = \"\";\n"
+                + "    for (var i = 0; i < 8; i = i + 1) { seen = seen + str(i); }\n"
+                + "    return seen;\n"
+                + "}\n"
+                + "print count();\n"
+                + "print count();\n";
+        assertSameWhenReplaced("01234567\n01234567\n", source);
+    }
+
+    @Test
+    void returnsFromInsideReplacedLoops() throws Exception {
+        String source = ""
+                + "fun find(limit) {\n"
+                + "    var i = 0;\n"
+                + "    while (true) {\n"
+                + "        if (i * i > limit) { return i; }\n"
+                + "        i = i + 1;\n"
+                + "    }\n"
+                + "}\n"
+                + "fun first(limit) {\n"
+                + "    for (var i = 0; i < 100; i = i + 1) { if (i * 3 > limit) return i; }\n"
+                + "    return nil;\n"
+                + "}\n"
+                + "print find(50);\n"
+                + "print first(20);\n"
+                + "print first(1000);\n";
+        assertSameWhenReplaced("8\n7\nnil\n", source);
+    }
+
+    @Test
+    void replacesNestedLoopsAndKeepsClosures() throws Exception {
+        String source = ""
+                + "var made = list();\n"
+                + "var total = 0;\n"
+                + "for (var i = 0; i < 6; i = i + 1) {\n"
+                + "    var j = 0;\n"
+                + "    while (j < i) { total = total + j; j = j + 1; }\n"
+                + "    var k = i;\n"
+                + "    fun get() { return k; }\n"
+                + "    append(made, get);\n"
+                + "}\n"
+                + "var sum = 0;\n"
+                + "for (var n = 0; n < len(made); n = n + 1) { sum = sum + get(made, n)(); }\n"
+                + "print total;\n"
+                + "print sum;\n";
+        assertSameWhenReplaced("20\n15\n", source);
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.script.ScriptException;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+class LoxEventsTest {
+    private static final String SOURCE = ""
+            + "class Point {}\n"
+            + "fun make() {\n"
+            + "    return Point();\n"
+            + "}\n"
+            + "make();\n"
+            + "print 1 - \"a\";\n";
+
+    // Runs the script under a recording with every Lox event on and no threshold.
+    private static List<RecordedEvent> record() throws Exception {
+        Path file = Files.createTempFile("lox", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name: List.of("lox.FunctionCall", "lox.InstanceAllocation", "lox.RuntimeError", "lox.Phase")) {
+                recording.enable(name).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            assertThrows(ScriptException.class, () -> Scripts.run(SOURCE));
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+
+    @Test
+    void recordsCallsAllocationsAndErrors() throws Exception {
+        List<RecordedEvent> events = record();
+
+        List<RecordedEvent> calls = named(events, "lox.FunctionCall");
+        assertEquals(1, calls.size());
+        assertEquals("make", calls.get(0).getString("function"));
+        assertEquals(2, calls.get(0).getInt("line"));
+
+        List<RecordedEvent> allocations = named(events, "lox.InstanceAllocation");
+        assertEquals(1, allocations.size());
+        assertEquals("Point", allocations.get(0).getString("className"));
+
+        List<RecordedEvent> errors = named(events, "lox.RuntimeError");
+        assertEquals(1, errors.size());
+        assertEquals(6, errors.get(0).getInt("line"));
+        assertTrue(errors.get(0).getString("message").startsWith("Operands must be"));
+    }
+
+    @Test
+    void recordsEveryPhase() throws Exception {
+        Set<String> phases = named(record(), "lox.Phase").stream()
+                .map(event -> event.getString("phase"))
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("scan", "parse", "optimize", "resolve", "execute"), phases);
+    }
+}
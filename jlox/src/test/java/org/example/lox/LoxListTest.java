@@ -0,0 +1,84 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class LoxListTest {
+    @Test
+    void growsWhileAllNumbers() {
+        LoxList list = new LoxList(null);
+        for (int i = 0; i < 20; i++) {
+            list.append((double) i);
+        }
+        assertEquals(20, list.size());
+        assertEquals(19.0, list.get(19));
+        list.set(3, 0.5);
+        assertEquals(0.5, list.get(3));
+    }
+
+    // Every number stored so far survives the move to an Object[], whichever call makes it.
+    @Test
+    void keepsNumbersWhenGeneralized() {
+        LoxList appended = new LoxList(null);
+        LoxList set = new LoxList(null);
+        for (int i = 0; i < 10; i++) {
+            appended.append((double) i);
+            set.append((double) i);
+        }
+        appended.append("a");
+        set.set(9, null);
+
+        for (int i = 0; i < 9; i++) {
+            assertEquals((double) i, appended.get(i));
+            assertEquals((double) i, set.get(i));
+        }
+        assertEquals("a", appended.get(10));
+        assertNull(set.get(9));
+
+        appended.append(1.5);
+        set.set(0, 2.5);
+        assertEquals(1.5, appended.get(11));
+        assertEquals(2.5, set.get(0));
+        assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, a, 1.5]", appended.toString());
+    }
+
+    @Test
+    void rejectsIndexesOutOfRange() {
+        LoxList list = new LoxList(null);
+        list.append(1.0);
+        NativeError error = assertThrows(NativeError.class, () -> list.get(1));
+        assertEquals("Index 1 is out of bounds for a list of length 1.", error.getMessage());
+        assertThrows(NativeError.class, () -> list.get(-1));
+        assertThrows(NativeError.class, () -> list.set(1, 2.0));
+        assertThrows(NativeError.class, () -> new LoxList(null).get(0));
+    }
+
+    @Test
+    void reportsBadIndexesInScripts() {
+        ScriptException error = assertThrows(ScriptException.class,
+                () -> Scripts.run("var l = list();\nappend(l, 1);\nprint get(l, 1);\n"));
+        assertTrue(error.getMessage().contains("out of bounds"), error.getMessage());
+        assertEquals(3, error.getLineNumber());
+
+        error = assertThrows(ScriptException.class, () -> Scripts.run("var l = list(); append(l, 1); print get(l, 0.5);\n"));
+        assertTrue(error.getMessage().contains("must be a whole number"), error.getMessage());
+    }
+
+    @Test
+    void mixesValuesInScripts() throws Exception {
+        String source = ""
+                + "var l = list();\n"
+                + "for (var i = 0; i < 3; i = i + 1) { append(l, i * 2); }\n"
+                + "append(l, \"x\");\n"
+                + "set(l, 0, true);\n"
+                + "print l;\n"
+                + "print len(l);\n"
+                + "print type(l);\n";
+        assertEquals("[true, 2, 4, x]\n4\nlist\n", Scripts.run(source));
+    }
+}
@@ -0,0 +1,107 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class LoxMapTest {
+    private static int slot(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & 7;
+    }
+
+    // Two keys that start probing at the same slot of a new map.
+    private static String[] colliding() {
+        for (int i = 0; ; i++) {
+            for (int j = 0; j < i; j++) {
+                if (slot("k" + i) == slot("k" + j)) { return new String[] {"k" + j, "k" + i}; }
+            }
+        }
+    }
+
+    @Test
+    void findsKeysPastTombstonesAndReusesThem() {
+        String[] keys = colliding();
+        LoxMap map = new LoxMap(null);
+        map.put(keys[0], 1.0);
+        map.put(keys[1], 2.0);
+        int first = slot(keys[0]);
+        assertEquals(keys[0], map.keyAt(first));
+
+        assertTrue(map.remove(keys[0]));
+        assertFalse(map.has(keys[0]));
+        assertEquals(2.0, map.get(keys[1]));
+
+        map.put(keys[0], 3.0);
+        assertEquals(keys[0], map.keyAt(first));
+        assertEquals(3.0, map.get(keys[0]));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void keepsEveryEntryThroughResizes() {
+        LoxMap map = new LoxMap(null);
+        for (int i = 0; i < 100; i++) {
+            map.put((double) i, "v" + i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            map.remove((double) i);
+        }
+        assertEquals(50, map.size());
+
+        int entries = 0;
+        for (int slot = map.nextSlot(0); slot >= 0; slot = map.nextSlot(slot + 1)) {
+            double key = (Double) map.keyAt(slot);
+            assertEquals(1.0, key % 2);
+            assertEquals("v" + (int) key, map.valueAt(slot));
+            entries++;
+        }
+        assertEquals(50, entries);
+    }
+
+    // A rope is stored flat, and finds and is found by the plain string with its characters.
+    @Test
+    void matchesRopeKeysWithStrings() {
+        String text = "x".repeat(40) + "y".repeat(40);
+        CharSequence rope = Rope.concat("x".repeat(40), "y".repeat(40));
+        assertInstanceOf(Rope.class, rope);
+
+        LoxMap map = new LoxMap(null);
+        map.put(rope, 1.0);
+        assertEquals(1.0, map.get(text));
+        assertInstanceOf(String.class, map.keyAt(map.nextSlot(0)));
+
+        map.put(text, 2.0);
+        assertEquals(1, map.size());
+        assertEquals(2.0, map.get(Rope.concat("x".repeat(40), "y".repeat(40))));
+    }
+
+    // Walking a map from a script hands back the same number for a slot every time.
+    @Test
+    void sharesSlotNumbers() {
+        LoxMap map = new LoxMap(null);
+        map.put("a", 1.0);
+        int slot = map.nextSlot(0);
+        assertEquals((double) slot, map.nextSlotNumber(0));
+        assertSame(map.nextSlotNumber(0), map.nextSlotNumber(0));
+        assertNull(map.nextSlotNumber(slot + 1));
+    }
+
+    @Test
+    void walksMapsFromScripts() throws Exception {
+        String source = ""
+                + "var m = map();\n"
+                + "for (var i = 0; i < 20; i = i + 1) { set(m, \"k\" + str(i), i); }\n"
+                + "remove(m, \"k3\");\n"
+                + "var total = 0;\n"
+                + "for (var s = nextSlot(m, 0); s != nil; s = nextSlot(m, s + 1)) { total = total + valueAt(m, s); }\n"
+                + "print total;\n"
+                + "print len(m);\n";
+        assertEquals("187\n19\n", Scripts.run(source));
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class LoxScriptEngineTest {
+    interface Adder {
+        int add(int a, int b);
+    }
+
+    interface Missing {
+        void missing();
+    }
+
+    @Test
+    void evalReturnsTheLastExpression() throws Exception {
+        LoxScriptEngine engine = new LoxScriptEngine();
+        assertEquals(3.0, engine.eval("1 + 2;"));
+        assertEquals("ab", engine.eval("\"a\" + \"b\";"));
+        assertNull(engine.eval("var x = 1;"));
+
+        engine.put("n", 5);
+        assertEquals(10.0, engine.eval("n * 2;"));
+    }
+
+    @Test
+    void invokesGlobalFunctions() throws Exception {
+        LoxScriptEngine engine = new LoxScriptEngine();
+        engine.eval("fun add(a, b) { return a + b; } var notAFunction = 1;");
+        assertEquals(3.0, engine.invokeFunction("add", 1, 2));
+        assertThrows(NoSuchMethodException.class, () -> engine.invokeFunction("nothing"));
+        assertThrows(NoSuchMethodException.class, () -> engine.invokeFunction("notAFunction"));
+    }
+
+    @Test
+    void implementsInterfacesWithGlobalFunctions() throws Exception {
+        LoxScriptEngine engine = new LoxScriptEngine();
+        engine.eval("fun add(a, b) { return a + b; }");
+        assertEquals(5, engine.getInterface(Adder.class).add(2, 3));
+        assertNull(engine.getInterface(Missing.class));
+    }
+
+    // What the script printed before the error still reaches the writer.
+    @Test
+    void reportsRuntimeErrorsAsScriptExceptions() {
+        LoxScriptEngine engine = new LoxScriptEngine();
+        StringWriter out = new StringWriter();
+        engine.getContext().setWriter(out);
+        ScriptException error = assertThrows(ScriptException.class, () -> engine.eval("print 1;\nprint 1 - \"a\";\n"));
+        assertEquals(2, error.getLineNumber());
+        assertEquals("1\n", out.toString());
+    }
+
+    // Declaring a global may change what cached scripts would have inlined, so they are compiled again.
+    @Test
+    void cachesScriptsUntilAGlobalIsDeclared() throws Exception {
+        LoxScriptEngine engine = new LoxScriptEngine();
+        engine.getContext().setWriter(new StringWriter());
+        long hits = Metrics.SCRIPT_CACHE_HITS.sum();
+        long misses = Metrics.SCRIPT_CACHE_MISSES.sum();
+
+        engine.eval("print 1;");
+        engine.eval("print 1;");
+        assertEquals(hits + 1, Metrics.SCRIPT_CACHE_HITS.sum());
+        assertEquals(misses + 1, Metrics.SCRIPT_CACHE_MISSES.sum());
+
+        engine.eval("var y = 1;");
+        engine.eval("print 1;");
+        assertEquals(hits + 1, Metrics.SCRIPT_CACHE_HITS.sum());
+        assertEquals(misses + 3, Metrics.SCRIPT_CACHE_MISSES.sum());
+    }
+
+    // An interpreter a host made itself reports runtime errors without the one main sets up.
+    @Test
+    void interpretReportsRuntimeErrorsOnItsOwnOutput() throws Exception {
+        String output = Scripts.compileAndRun("print 1;\nprint 1 - \"a\";\nprint 2;\n", optimizer -> {});
+        assertEquals("1\n", output);
+        assertTrue(Lox.hadRuntimeError);
+        Lox.hadRuntimeError = false;
+    }
+}
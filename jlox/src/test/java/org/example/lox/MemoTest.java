@@ -0,0 +1,68 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MemoTest {
+    @Test
+    void forgetsResultsWhenAGlobalCalleeIsRebound() throws Exception {
+        String source = ""
+                + "pure fun g(x) { return x + 1; }\n"
+                + "pure fun h(x) { return x * 10; }\n"
+                + "pure fun f(x) { return g(x); }\n"
+                + "print f(1);\n"
+                + "g = h;\n"
+                + "print f(1);\n";
+        assertEquals("2\n10\n", Scripts.run(source));
+    }
+
+    @Test
+    void forgetsResultsWhenACapturedCalleeIsRebound() throws Exception {
+        String source = ""
+                + "fun outer() {\n"
+                + "    pure fun a(x) { return x + 100; }\n"
+                + "    pure fun b(x) { return x + 200; }\n"
+                + "    pure fun c(x) { return a(x); }\n"
+                + "    print c(1);\n"
+                + "    a = b;\n"
+                + "    print c(1);\n"
+                + "}\n"
+                + "outer();\n";
+        assertEquals("101\n201\n", Scripts.run(source));
+    }
+
+    @Test
+    void keepsResultsUntilAFunctionIsReplaced() {
+        Memo memo = new Memo("f", 4);
+        List<Object> key = Memo.key(Arrays.asList(1.0, "a"));
+
+        long generation = Memo.generation();
+        assertSame(Memo.MISSING, memo.get(key, generation));
+        memo.put(key, 2.0, generation);
+        assertEquals(2.0, memo.get(key, Memo.generation()));
+
+        Memo.rebound(3.0);
+        assertEquals(2.0, memo.get(key, Memo.generation()));
+
+        Memo.rebound(new LoxFunction(null, null));
+        assertSame(Memo.MISSING, memo.get(key, Memo.generation()));
+        assertEquals(2, memo.hits);
+        assertEquals(2, memo.misses);
+    }
+
+    // A call that was running while something was rebound may have used the old function.
+    @Test
+    void dropsAResultWorkedOutAcrossARebinding() {
+        Memo memo = new Memo("f", 4);
+        List<Object> key = Memo.key(Arrays.asList(1.0));
+        long generation = Memo.generation();
+        assertSame(Memo.MISSING, memo.get(key, generation));
+        Memo.rebound(new LoxFunction(null, null));
+        memo.put(key, 2.0, generation);
+        assertSame(Memo.MISSING, memo.get(key, Memo.generation()));
+    }
+}
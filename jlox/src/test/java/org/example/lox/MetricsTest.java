@@ -0,0 +1,47 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+class MetricsTest {
+    private static final String NAME = "org.example.lox:type=Metrics";
+
+    // The first engine registers the bean; the ones after find it there.
+    @Test
+    void registersWithTheFirstEngine() throws Exception {
+        new LoxScriptEngine();
+        new LoxScriptEngine();
+        Metrics.register();
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(NAME)));
+    }
+
+    @Test
+    void showsCountsOverJmx() throws Exception {
+        LoxScriptEngine engine = new LoxScriptEngine();
+        engine.getContext().setWriter(new StringWriter());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(NAME);
+        LoxMetricsMXBean bean = JMX.newMXBeanProxy(server, name, LoxMetricsMXBean.class);
+
+        long calls = (long) server.getAttribute(name, "Calls");
+        long instances = bean.getInstances();
+        engine.eval("class A {} fun f() { return A(); } for (var i = 0; i < 3; i = i + 1) { f(); }");
+        assertEquals(calls + 3, (long) server.getAttribute(name, "Calls"));
+        assertEquals(instances + 3, bean.getInstances());
+
+        Map<String, Double> means = bean.getPhaseMeanMillis();
+        assertTrue(means.keySet().containsAll(List.of("scan", "parse", "optimize", "resolve", "execute")),
+                means.toString());
+        long[] histogram = bean.getPhaseHistograms().get("execute");
+        assertEquals(32, histogram.length);
+    }
+}
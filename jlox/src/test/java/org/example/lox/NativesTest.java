@@ -0,0 +1,69 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class NativesTest {
+    // Tree-walked, and compiled from the first call on.
+    private static void assertPrints(String expected, String source) throws ScriptException {
+        assertEquals(expected, Scripts.compileAndRun(source, interpreter -> {}, optimizer -> {}));
+        assertEquals(expected, Scripts.compileAndRun(source, interpreter -> interpreter.tiering.threshold = 1,
+                optimizer -> {}));
+    }
+
+    private static void assertRuntimeError(String message, String source) {
+        ScriptException error = assertThrows(ScriptException.class, () -> Scripts.run(source));
+        assertTrue(error.getMessage().contains(message), error.getMessage());
+    }
+
+    // A call resolved to a native takes the normal path once the global holds something else.
+    @Test
+    void callsWhatTheGlobalHoldsNow() throws Exception {
+        String source = ""
+                + "fun root(x) { return sqrt(x); }\n"
+                + "print root(16);\n"
+                + "print root(16);\n"
+                + "sqrt = floor;\n"
+                + "print root(2.5);\n"
+                + "fun half(x) { return x / 2; }\n"
+                + "sqrt = half;\n"
+                + "print root(16);\n"
+                + "print root(16);\n";
+        assertPrints("4\n4\n2\n8\n8\n", source);
+    }
+
+    @Test
+    void callsIntrinsicsInLoops() throws Exception {
+        String source = ""
+                + "var total = 0;\n"
+                + "for (var i = 0; i < 10; i = i + 1) { total = total + max(abs(i - 5), floor(sqrt(i))); }\n"
+                + "print total;\n"
+                + "print pow(2, 10);\n"
+                + "print min(3, 0 - 4);\n";
+        assertPrints("29\n1024\n-4\n", source);
+    }
+
+    @Test
+    void reportsBadArguments() {
+        assertRuntimeError("must be a number", "print sqrt(\"a\");\n");
+        assertRuntimeError("Expected 1 arguments but got 2.", "print sqrt(1, 2);\n");
+        assertRuntimeError("must be a whole number", "print substring(\"abc\", 0.5, 2);\n");
+    }
+
+    @Test
+    void runsStringAndConversionNatives() throws Exception {
+        String source = ""
+                + "print upper(\"ab\") + lower(\"CD\");\n"
+                + "print substring(\"hello\", 1, 3);\n"
+                + "print indexOf(\"hello\", \"l\");\n"
+                + "print trim(\"  x  \") + \"|\";\n"
+                + "print num(\"12.5\") + 1;\n"
+                + "print num(\"twelve\");\n"
+                + "print type(1) + type(\"a\") + type(nil) + type(sqrt);\n";
+        assertPrints("ABcd\nel\n2\nx|\n13.5\nnil\nnumberstringnilfunction\n", source);
+    }
+}
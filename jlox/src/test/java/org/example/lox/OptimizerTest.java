@@ -0,0 +1,43 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+class OptimizerTest {
+    private static void assertCompileError(String message, String source) {
+        ScriptException error = assertThrows(ScriptException.class, () -> Scripts.run(source));
+        assertTrue(error.getMessage().contains(message), error.getMessage());
+    }
+
+    // Branches that can never run are dropped, but they still have to compile.
+    @Test
+    void reportsErrorsInDeadBranches() {
+        assertCompileError("Can't return from top-level code.", "if (false) { return 1; }\n");
+        assertCompileError("Can't return from top-level code.", "if (true) {} else { return 1; }\n");
+        assertCompileError("Can't return from top-level code.", "while (false) { return 1; }\n");
+        assertCompileError("Can't print in a pure function.",
+                "pure fun f() { if (false) { print 1; } return 1; }\n");
+        assertCompileError("Can't yield from top-level code.", "if (false) { yield 1; }\n");
+    }
+
+    @Test
+    void reportsErrorsInShortCircuitedOperands() {
+        assertCompileError("A pure function can only call 'g', not read it.",
+                "var g = 1;\npure fun f() { return false and g; }\n");
+        assertCompileError("A pure function can only call 'g', not read it.",
+                "var g = 1;\npure fun f() { return true or g; }\n");
+    }
+
+    @Test
+    void stillDropsDeadBranches() throws Exception {
+        String source = ""
+                + "if (false) { print \"dead\"; } else { print \"live\"; }\n"
+                + "while (false) { print \"dead\"; }\n"
+                + "print true or undefinedVar;\n";
+        assertEquals("live\ntrue\n", Scripts.run(source));
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class OutputBufferTest {
+    @Test
+    void holdsLinesUntilFlushed() {
+        StringWriter out = new StringWriter();
+        OutputBuffer buffer = new OutputBuffer(out);
+        buffer.println("one");
+        buffer.println("two");
+        assertEquals("", out.toString());
+
+        buffer.flush();
+        assertEquals("one\ntwo\n", out.toString());
+    }
+
+    // Whatever is already buffered goes first, and a line is never split across writes.
+    @Test
+    void writesLongLinesWhole() {
+        List<String> writes = new ArrayList<>();
+        Writer out = new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) {
+                writes.add(new String(chars, offset, length));
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        OutputBuffer buffer = new OutputBuffer(out);
+        buffer.resize(8);
+        buffer.println("ab");
+        buffer.println("cdefghijkl");
+        buffer.println("m");
+        buffer.flush();
+        assertEquals(List.of("ab\n", "cdefghijkl\n", "m\n"), writes);
+    }
+
+    @Test
+    void recordsFailedWritesInsteadOfThrowing() {
+        OutputBuffer buffer = new OutputBuffer(new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) throws IOException {
+                throw new IOException("closed");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        buffer.println("lost");
+        buffer.flush();
+        assertTrue(buffer.failed);
+    }
+
+    // The error is printed on System.out after everything the script printed before it.
+    @Test
+    void flushesBeforeRuntimeErrors() throws Exception {
+        ByteArrayOutputStream terminal = new ByteArrayOutputStream();
+        PrintStream shared = new PrintStream(terminal, true);
+        PrintStream stdout = System.out;
+        System.setOut(shared);
+        try {
+            Interpreter interpreter = new Interpreter(new OutputBuffer(new OutputStreamWriter(shared)));
+            Lox.compileErrors.set(new ArrayList<>());
+            List<Stmt> statements;
+            try {
+                statements = Lox.compile("print 1;\nprint 2;\nprint 3 - \"a\";\nprint 4;\n", interpreter,
+                        new Optimizer(interpreter.strings));
+            } finally {
+                Lox.compileErrors.remove();
+            }
+            interpreter.interpret(statements);
+        } finally {
+            System.setOut(stdout);
+            Lox.hadRuntimeError = false;
+        }
+        assertEquals("1\n2\nline [3]: \n", terminal.toString().replace(System.lineSeparator(), "\n"));
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class ProfilerTest {
+    // flamegraph.pl's collapsed format: frames root first, separated by ';', then the sample count.
+    private static final Pattern LINE = Pattern.compile("<script>:7(;[a-z]+:\\d+)* \\d+");
+
+    private static List<Stmt> functions(String source) {
+        return new Parser(new Scanner(source, new StringTable()).scanTokens()).parse();
+    }
+
+    @Test
+    void writesCollapsedStacks() throws Exception {
+        List<Stmt> declarations = functions("fun outer() {}\n\nfun inner() {}\n");
+        Stmt.Function outer = (Stmt.Function) declarations.get(0);
+        Stmt.Function inner = (Stmt.Function) declarations.get(1);
+
+        Path output = Files.createTempFile("profile", ".txt");
+        try {
+            Profiler profiler = new Profiler(output);
+            Profiler.Stack stack = profiler.stack("<script>", Thread.currentThread());
+            profiler.start(100_000);
+
+            // Spins so the thread stays runnable while the sampler looks at it.
+            stack.at(7);
+            stack.push(outer);
+            stack.at(2);
+            stack.push(inner);
+            long end = System.nanoTime() + 300_000_000L;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+            stack.pop();
+            stack.pop();
+            profiler.stop();
+
+            List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+            assertFalse(lines.isEmpty());
+            for (String line: lines) {
+                assertTrue(LINE.matcher(line).matches(), line);
+            }
+            assertTrue(lines.stream().anyMatch(line -> line.startsWith("<script>:7;outer:2;inner:3 ")), lines.toString());
+        } finally {
+            Files.delete(output);
+        }
+    }
+
+    // A stack that never ran is never sampled, and the file is still written.
+    @Test
+    void writesNothingWithoutSamples() throws Exception {
+        Path output = Files.createTempFile("profile", ".txt");
+        try {
+            Profiler profiler = new Profiler(output);
+            profiler.stack("<script>", null);
+            profiler.stop();
+            assertEquals(List.of(), Files.readAllLines(output, StandardCharsets.UTF_8));
+        } finally {
+            Files.delete(output);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+// Each script prints the same with uncaptured locals in frame slots as with every local in an
+// Environment.
+class ResolverTest {
+    private static void assertSameWithoutFrameSlots(String expected, String source) throws ScriptException {
+        assertEquals(expected, Scripts.compileAndRun(source, optimizer -> {}));
+        assertEquals(expected, Scripts.compileAndRun(source, optimizer -> optimizer.disable("slots")));
+    }
+
+    @Test
+    void sharesCapturedVariablesWithClosures() throws Exception {
+        String source = ""
+                + "fun counter(start) {\n"
+                + "    var n = start;\n"
+                + "    var unused = 0;\n"
+                + "    fun increment() { n = n + 1; return n; }\n"
+                + "    return increment;\n"
+                + "}\n"
+                + "var a = counter(0);\n"
+                + "var b = counter(10);\n"
+                + "a();\n"
+                + "b();\n"
+                + "print a();\n"
+                + "print b();\n";
+        assertSameWithoutFrameSlots("2\n12\n", source);
+    }
+
+    // Each iteration's block gets a variable of its own, the loop's counter is shared.
+    @Test
+    void capturesFreshVariablesInLoops() throws Exception {
+        String source = ""
+                + "fun make() {\n"
+                + "    var made = list();\n"
+                + "    for (var i = 0; i < 3; i = i + 1) {\n"
+                + "        var j = i;\n"
+                + "        var k = j * 100;\n"
+                + "        fun both() { return j * 10 + i; }\n"
+                + "        append(made, both);\n"
+                + "        if (k == 100) { i = i + 1; }\n"
+                + "    }\n"
+                + "    return made;\n"
+                + "}\n"
+                + "var made = make();\n"
+                + "for (var n = 0; n < len(made); n = n + 1) { print get(made, n)(); }\n";
+        assertSameWithoutFrameSlots("3\n13\n", source);
+    }
+
+    // Slots freed at the end of a block are reused by the next, with a value of another type.
+    @Test
+    void keepsShadowedAndReusedSlotsApart() throws Exception {
+        String source = ""
+                + "fun f(a) {\n"
+                + "    var b = a;\n"
+                + "    {\n"
+                + "        var b = \"inner\";\n"
+                + "        var c = b + \"!\";\n"
+                + "        print c;\n"
+                + "    }\n"
+                + "    {\n"
+                + "        var d = 1;\n"
+                + "        fun get() { return d + b; }\n"
+                + "        d = 2;\n"
+                + "        print get();\n"
+                + "    }\n"
+                + "    {\n"
+                + "        var e;\n"
+                + "        print e;\n"
+                + "    }\n"
+                + "    b = \"now \" + str(b);\n"
+                + "    return b;\n"
+                + "}\n"
+                + "var result;\n"
+                + "for (var i = 0; i < 1500; i = i + 1) { result = f(i); }\n"
+                + "print result;\n";
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1500; i++) {
+            expected.append("inner!\n").append(i + 2).append("\nnil\n");
+        }
+        expected.append("now 1499\n");
+        assertSameWithoutFrameSlots(expected.toString(), source);
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RopeTest {
+    private static final String LEFT = "a".repeat(40);
+    private static final String RIGHT = "b".repeat(40);
+
+    @Test
+    void equalsPlainStringsBothWays() {
+        CharSequence rope = Rope.concat(LEFT, RIGHT);
+        assertInstanceOf(Rope.class, rope);
+        String text = LEFT + RIGHT;
+
+        assertTrue(rope.equals(text));
+        assertTrue(Interpreter.isEqual(rope, text));
+        assertTrue(Interpreter.isEqual(text, rope));
+        assertEquals(text.hashCode(), rope.hashCode());
+
+        assertFalse(Interpreter.isEqual(rope, LEFT + LEFT));
+        assertFalse(Interpreter.isEqual(LEFT + LEFT, rope));
+        assertFalse(Interpreter.isEqual(rope, null));
+    }
+
+    @Test
+    void equalsRopesWithTheSameCharacters() {
+        CharSequence split = Rope.concat(LEFT, RIGHT);
+        CharSequence other = Rope.concat(LEFT + "b", RIGHT.substring(1));
+        assertTrue(Interpreter.isEqual(split, other));
+        assertEquals(split.hashCode(), other.hashCode());
+    }
+
+    // Short pieces are joined straight away rather than kept as a node.
+    @Test
+    void joinsShortStrings() {
+        assertEquals("ab", Rope.concat("a", "b"));
+        assertInstanceOf(String.class, Rope.concat("a", "b"));
+    }
+
+    // One node per step of the loop, far deeper than the Java stack would allow to recurse.
+    @Test
+    void flattensDeepRopes() {
+        CharSequence rope = LEFT;
+        StringBuilder expected = new StringBuilder(LEFT);
+        for (int i = 0; i < 200_000; i++) {
+            rope = Rope.concat(rope, "c");
+            expected.append('c');
+        }
+        assertEquals(expected.length(), rope.length());
+        assertEquals(expected.toString(), rope.toString());
+        assertTrue(Interpreter.isEqual(expected.toString(), rope));
+    }
+
+    @Test
+    void buildsStringsInScripts() throws Exception {
+        String source = ""
+                + "var s = \"\";\n"
+                + "for (var i = 0; i < 1000; i = i + 1) { s = s + \"x\"; }\n"
+                + "var t = \"\";\n"
+                + "for (var i = 0; i < 500; i = i + 1) { t = t + \"xx\"; }\n"
+                + "print len(s);\n"
+                + "print s == t;\n";
+        assertEquals("1000\ntrue\n", Scripts.run(source));
+    }
+}
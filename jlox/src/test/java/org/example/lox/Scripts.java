@@ -0,0 +1,51 @@
+package org.example.lox;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.script.ScriptException;
+
+// Runs Lox source on a fresh engine and returns what it printed.
+final class Scripts {
+    private Scripts() {
+    }
+
+    static String run(String source) throws ScriptException {
+        LoxScriptEngine engine = new LoxScriptEngine();
+        StringWriter out = new StringWriter();
+        engine.getContext().setWriter(out);
+        engine.eval(source);
+        return out.toString();
+    }
+
+    // Compiles through Lox.compile with the passes the caller leaves on, and runs on a fresh
+    // interpreter. A runtime error is reported through Lox and ends the output there.
+    static String compileAndRun(String source, Consumer<Optimizer> passes) throws ScriptException {
+        return compileAndRun(source, interpreter -> {}, passes);
+    }
+
+    // The same, with the interpreter set up by the caller first.
+    static String compileAndRun(String source, Consumer<Interpreter> setup, Consumer<Optimizer> passes)
+            throws ScriptException {
+        StringWriter out = new StringWriter();
+        Interpreter interpreter = new Interpreter(new OutputBuffer(out));
+        setup.accept(interpreter);
+        Optimizer optimizer = new Optimizer(interpreter.strings);
+        passes.accept(optimizer);
+
+        List<ScriptException> errors = new ArrayList<>();
+        Lox.compileErrors.set(errors);
+        List<Stmt> statements;
+        try {
+            statements = Lox.compile(source, interpreter, optimizer);
+        } finally {
+            Lox.compileErrors.remove();
+        }
+        if (statements == null) { throw errors.get(0); }
+
+        interpreter.interpret(statements);
+        interpreter.out.flush();
+        return out.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class StringTableTest {
+    @Test
+    void internsLiteralsAndIdentifiers() {
+        StringTable strings = new StringTable();
+        List<Token> tokens = new Scanner("name \"text\" name \"text\"", strings).scanTokens();
+        assertSame(tokens.get(0).lexeme, tokens.get(2).lexeme);
+        assertSame(tokens.get(1).literal, tokens.get(3).literal);
+        assertSame(strings.intern(new String("name")), tokens.get(0).lexeme);
+    }
+
+    // Each program has its own table.
+    @Test
+    void keepsTablesApart() {
+        List<Token> first = new Scanner("\"text\"", new StringTable()).scanTokens();
+        List<Token> second = new Scanner("\"text\"", new StringTable()).scanTokens();
+        assertEquals(first.get(0).literal, second.get(0).literal);
+        assertNotSame(first.get(0).literal, second.get(0).literal);
+    }
+
+    @Test
+    void internsShortRuntimeStringsOnlyWhenAsked() {
+        StringTable strings = new StringTable();
+        String interned = strings.intern("ab");
+        String built = new String("ab");
+        assertSame(built, strings.dynamic(built));
+
+        strings.internDynamic = true;
+        assertSame(interned, strings.dynamic(built));
+        CharSequence rope = Rope.concat("a".repeat(40), "b".repeat(40));
+        assertSame(rope, strings.dynamic(rope));
+    }
+
+    @Test
+    void nilOnlyEqualsNil() throws Exception {
+        assertTrue(Interpreter.isEqual(null, null));
+        assertFalse(Interpreter.isEqual(null, 1.0));
+        assertFalse(Interpreter.isEqual(null, false));
+        assertFalse(Interpreter.isEqual(1.0, null));
+        assertFalse(Interpreter.isEqual("", null));
+
+        String source = ""
+                + "print nil == nil;\n"
+                + "print nil == false;\n"
+                + "print nil == 0;\n"
+                + "print \"\" == nil;\n"
+                + "print nil != 1;\n";
+        assertEquals("true\nfalse\nfalse\nfalse\ntrue\n", Scripts.run(source));
+    }
+
+    @Test
+    void comparesBuiltStringsByValue() throws Exception {
+        assertEquals("true\n", Scripts.run("var a = \"ab\"; var b = \"a\" + str(\"b\"); print a == b;\n"));
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class TaskTest {
+    // The owner grows the list past several resizes, and moves it from numbers to objects halfway,
+    // while the task reads the last element over and over.
+    @Test
+    void readsAListWhileItsOwnerGrowsIt() throws Exception {
+        String source = ""
+                + "var l = list();\n"
+                + "var done = false;\n"
+                + "fun reader() {\n"
+                + "    var bad = 0;\n"
+                + "    var reads = 0;\n"
+                + "    while (done == false or reads == 0) {\n"
+                + "        var n = len(l);\n"
+                + "        if (n > 0) {\n"
+                + "            var v = get(l, n - 1);\n"
+                + "            if (v != n - 1 and v != \"x\") { bad = bad + 1; }\n"
+                + "            reads = reads + 1;\n"
+                + "        }\n"
+                + "    }\n"
+                + "    return bad;\n"
+                + "}\n"
+                + "var task = spawn(reader);\n"
+                + "for (var i = 0; i < 200000; i = i + 1) {\n"
+                + "    if (i == 100000) { append(l, \"x\"); } else { append(l, i); }\n"
+                + "}\n"
+                + "done = true;\n"
+                + "print join(task);\n";
+        assertEquals("0\n", Scripts.run(source));
+    }
+
+    @Test
+    void readsAMapWhileItsOwnerGrowsIt() throws Exception {
+        String source = ""
+                + "var m = map();\n"
+                + "var done = false;\n"
+                + "fun reader() {\n"
+                + "    var bad = 0;\n"
+                + "    while (done == false) {\n"
+                + "        if (has(m, 0) and get(m, 0) != 0) { bad = bad + 1; }\n"
+                + "    }\n"
+                + "    return bad;\n"
+                + "}\n"
+                + "set(m, 0, 0);\n"
+                + "var task = spawn(reader);\n"
+                + "for (var i = 1; i < 100000; i = i + 1) { set(m, i, i); }\n"
+                + "done = true;\n"
+                + "print join(task);\n"
+                + "print len(keys(m));\n";
+        assertEquals("0\n100000\n", Scripts.run(source));
+    }
+
+    // A variable captured by the task, read while the owner declares more in the same scope.
+    @Test
+    void readsACapturedVariableWhileItsScopeGrows() throws Exception {
+        StringBuilder declarations = new StringBuilder();
+        StringBuilder uses = new StringBuilder("0");
+        for (int i = 0; i < 40; i++) {
+            declarations.append("    var v").append(i).append(" = ").append(i).append(";\n");
+            uses.append(" + v").append(i);
+        }
+        String source = ""
+                + "var done = false;\n"
+                + "fun run() {\n"
+                + "    var x = 1;\n"
+                + "    fun reader() {\n"
+                + "        var reads = 0;\n"
+                + "        while (done == false) { reads = reads + x; }\n"
+                + "        return reads > 0 or done;\n"
+                + "    }\n"
+                + "    var task = spawn(reader);\n"
+                + declarations
+                + "    fun total() { return " + uses + "; }\n"
+                + "    done = true;\n"
+                + "    print join(task);\n"
+                + "    print total();\n"
+                + "}\n"
+                + "run();\n";
+        assertEquals("true\n780\n", Scripts.run(source));
+    }
+
+    @Test
+    void joinRaisesWhatATaskFailedWith() {
+        String source = ""
+                + "fun deep(n) { return deep(n + 1); }\n"
+                + "fun overflow() { return deep(0); }\n"
+                + "print join(spawn(overflow));\n";
+        assertThrows(StackOverflowError.class, () -> Scripts.run(source));
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class TieringTest {
+    // Four tasks run the same closures past the threshold together. Each declaration is promoted
+    // at most once, whoever gets there first.
+    @Test
+    void promotesOnceWhenTasksCrossTheThresholdTogether() throws Exception {
+        String source = ""
+                + "fun step(n) { var m = n + 1; return m; }\n"
+                + "fun work() {\n"
+                + "    var total = 0;\n"
+                + "    for (var i = 0; i < 5000; i = i + 1) { total = step(total); }\n"
+                + "    return total;\n"
+                + "}\n"
+                + "var a = spawn(work);\n"
+                + "var b = spawn(work);\n"
+                + "var c = spawn(work);\n"
+                + "var d = spawn(work);\n"
+                + "print join(a) + join(b) + join(c) + join(d);\n";
+        long before = Metrics.FUNCTIONS_PROMOTED.sum();
+        assertEquals("20000\n", Scripts.run(source));
+        long promoted = Metrics.FUNCTIONS_PROMOTED.sum() - before;
+        assertTrue(promoted >= 1 && promoted <= 2, promoted + " promotions");
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.lox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+// Each script prints the same with operand checks skipped where types are inferred as without.
+class TypeInferrerTest {
+    private static void assertSameWithoutInference(String expected, String source) throws ScriptException {
+        assertEquals(expected, Scripts.compileAndRun(source, optimizer -> {}));
+        assertEquals(expected, Scripts.compileAndRun(source, optimizer -> optimizer.disable("types")));
+    }
+
+    // Called often enough to run compiled as well.
+    @Test
+    void followsAVariableWhoseTypeChangesInALoop() throws Exception {
+        String source = ""
+                + "fun f(n) {\n"
+                + "    var x = 1;\n"
+                + "    var total = 0;\n"
+                + "    for (var i = 0; i < n; i = i + 1) {\n"
+                + "        total = total + x;\n"
+                + "        if (i == 2) { x = \"s\"; total = str(total); }\n"
+                + "    }\n"
+                + "    return total;\n"
+                + "}\n"
+                + "var result;\n"
+                + "for (var j = 0; j < 2000; j = j + 1) { result = f(5); }\n"
+                + "print result;\n";
+        assertSameWithoutInference("3ss\n", source);
+    }
+
+    @Test
+    void joinsTypesAtTheEndOfBranches() throws Exception {
+        String source = ""
+                + "fun k() {\n"
+                + "    var x = 0;\n"
+                + "    var i = 0;\n"
+                + "    while (i < 4) {\n"
+                + "        if (i == 1) { x = \"a\"; } else { if (i == 3) { x = 5; } }\n"
+                + "        print x + x;\n"
+                + "        i = i + 1;\n"
+                + "    }\n"
+                + "}\n"
+                + "k();\n";
+        assertSameWithoutInference("0\naa\naa\n10\n", source);
+    }
+
+    @Test
+    void keepsShadowedVariablesApart() throws Exception {
+        String source = ""
+                + "fun g() {\n"
+                + "    var a = 1;\n"
+                + "    {\n"
+                + "        var a = \"inner\";\n"
+                + "        print a + \"!\";\n"
+                + "    }\n"
+                + "    print a + 1;\n"
+                + "    var b = a;\n"
+                + "    {\n"
+                + "        var b = \"x\";\n"
+                + "        b = b + b;\n"
+                + "        print b;\n"
+                + "    }\n"
+                + "    return b + a;\n"
+                + "}\n"
+                + "print g();\n";
+        assertSameWithoutInference("inner!\n2\nxx\n2\n", source);
+    }
+
+    // A closure assigning the variable makes its type unknown from then on.
+    @Test
+    void distrustsVariablesAClosureAssigns() throws Exception {
+        String source = ""
+                + "fun h() {\n"
+                + "    var v = 1;\n"
+                + "    fun change() { v = \"now a string\"; }\n"
+                + "    var before = v + 1;\n"
+                + "    change();\n"
+                + "    return str(before) + v;\n"
+                + "}\n"
+                + "var result;\n"
+                + "for (var j = 0; j < 2000; j = j + 1) { result = h(); }\n"
+                + "print result;\n";
+        assertSameWithoutInference("2now a string\n", source);
+    }
+}